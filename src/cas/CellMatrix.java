@@ -1,5 +1,616 @@
 package cas;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import cas.vector.DenseVector;
+import cas.vector.FrozenSparseVector;
+import cas.vector.SparseVector;
+import cas.vector.VectorArrays;
+
+/*************************************************************************
+ *  An immutable M-by-N sparse matrix in compressed sparse row (CSR)
+ *  form: the non-zeros of row i are vals[rowPtr[i]..rowPtr[i+1]-1], in
+ *  increasing column order colIdx[..]. Memory and every operation are
+ *  O(nnz) instead of O(M*N), for data that is mostly zeros.
+ *
+ *  Build one from (row, column, value) triples with CellMatrix.Builder.
+ *
+ *  Products with a vector (SpMV) are split by rows over Matrix.pool()
+ *  once the number of non-zeros reaches Matrix.setParallelThreshold();
+ *  every block of rows gets about the same number of non-zeros. The
+ *  sparse product times(CellMatrix) is split the same way by its number
+ *  of multiply-adds.
+ *
+ *************************************************************************/
+
 public class CellMatrix {
+    private static final int MIN_NNZ_PER_TASK = 1 << 14;
+
+    private final int M;             // number of rows
+    private final int N;             // number of columns
+    final int[] rowPtr;              // M+1 entries, rowPtr[M] == nnz
+    final int[] colIdx;              // column of every non-zero, increasing within a row
+    final double[] vals;             // value of every non-zero
+
+    // wrap CSR arrays, which are not copied
+    CellMatrix(int M, int N, int[] rowPtr, int[] colIdx, double[] vals) {
+        this.M = M;
+        this.N = N;
+        this.rowPtr = rowPtr;
+        this.colIdx = colIdx;
+        this.vals = vals;
+    }
+
+    // create a sparse matrix from the non-zeros of A
+    public CellMatrix(Matrix A) {
+        M = A.rows();
+        N = A.columns();
+        int nnz = 0;
+        for (int i = 0; i < M; i++)
+            for (int j = 0; j < N; j++)
+                if (A.get(i, j) != 0.0) nnz++;
+        rowPtr = new int[M + 1];
+        colIdx = new int[nnz];
+        vals = new double[nnz];
+        int k = 0;
+        for (int i = 0; i < M; i++) {
+            for (int j = 0; j < N; j++) {
+                double v = A.get(i, j);
+                if (v == 0.0) continue;
+                colIdx[k] = j;
+                vals[k++] = v;
+            }
+            rowPtr[i + 1] = k;
+        }
+    }
+
+    public int rows() {
+        return M;
+    }
+
+    public int columns() {
+        return N;
+    }
+
+    // number of stored non-zeros
+    public int nnz() {
+        return rowPtr[M];
+    }
+
+    // return element (i, j), O(log(nnz of row i))
+    public double get(int i, int j) {
+        if (i < 0 || i >= M || j < 0 || j >= N) throw new RuntimeException("Illegal matrix index.");
+        int k = Arrays.binarySearch(colIdx, rowPtr[i], rowPtr[i + 1], j);
+        return k < 0 ? 0.0 : vals[k];
+    }
+
+    // return the dense copy of this matrix
+    public Matrix toMatrix() {
+        Matrix A = new Matrix(M, N);
+        for (int i = 0; i < M; i++)
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++)
+                A.data[i * N + colIdx[k]] = vals[k];
+        return A;
+    }
+
+    // y = A x, on the arrays of x and y; x is copied only if it is y itself
+    public void times(DenseVector x, DenseVector y) {
+        if (x.size() != N || y.size() != M) throw new RuntimeException("Illegal matrix dimensions.");
+        double[] xs = VectorArrays.dense(x);
+        double[] ys = VectorArrays.dense(y);
+        if (xs == ys) xs = Arrays.copyOf(xs, N);
+        spmv(xs, null, ys);
+    }
+
+    // y = A x for a sparse x, which is never densified: each row is intersected with its
+    // sorted stored indices
+    public void times(SparseVector x, DenseVector y) {
+        if (x.size() != N || y.size() != M) throw new RuntimeException("Illegal matrix dimensions.");
+        FrozenSparseVector fx = x.freeze();
+        spmv(VectorArrays.values(fx), VectorArrays.indices(fx), VectorArrays.dense(y));
+    }
+
+    // y = A x for a sparse x, only the non-zeros of the result are stored in y
+    public void times(SparseVector x, SparseVector y) {
+        if (x.size() != N || y.size() != M) throw new RuntimeException("Illegal matrix dimensions.");
+        FrozenSparseVector fx = x.freeze();
+        double[] ys = new double[M];
+        spmv(VectorArrays.values(fx), VectorArrays.indices(fx), ys);
+        y.clear();
+        for (int i = 0; i < M; i++)
+            if (ys[i] != 0.0) y.set(i, ys[i]);
+    }
+
+    // y = A x, sequential or split by rows on Matrix.pool(). x is dense if xIdx is null,
+    // otherwise it holds the values at the sorted indices xIdx
+    private void spmv(double[] x, int[] xIdx, double[] y) {
+        int nnz = nnz();
+        ForkJoinPool pool = nnz < Matrix.parallelThreshold() || nnz < 2 * MIN_NNZ_PER_TASK ? null : Matrix.pool();
+        if (pool == null || pool.getParallelism() < 2)
+            spmv(x, xIdx, y, 0, M);
+        else
+            pool.invoke(new SpMVTask(x, xIdx, y, 0, M, Math.max(MIN_NNZ_PER_TASK, nnz / (8 * pool.getParallelism()))));
+    }
+
+    // y[i] = row i of A .* x for rows from..to-1
+    private void spmv(double[] x, int[] xIdx, double[] y, int from, int to) {
+        if (xIdx == null) {
+            for (int i = from; i < to; i++) {
+                double s = 0.0;
+                for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++)
+                    s += vals[k] * x[colIdx[k]];
+                y[i] = s;
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            int lo = rowPtr[i], hi = rowPtr[i + 1];
+            double s = 0.0;
+            // binary search every element of the shorter list in the rest of the longer one
+            if (hi - lo <= xIdx.length) {
+                for (int k = lo, p = 0; k < hi && p < xIdx.length; k++) {
+                    int q = Arrays.binarySearch(xIdx, p, xIdx.length, colIdx[k]);
+                    if (q >= 0) {
+                        s += vals[k] * x[q];
+                        p = q + 1;
+                    }
+                    else
+                        p = -q - 1;
+                }
+            }
+            else {
+                for (int p = 0, k = lo; p < xIdx.length && k < hi; p++) {
+                    int q = Arrays.binarySearch(colIdx, k, hi, xIdx[p]);
+                    if (q >= 0) {
+                        s += vals[q] * x[p];
+                        k = q + 1;
+                    }
+                    else
+                        k = -q - 1;
+                }
+            }
+            y[i] = s;
+        }
+    }
+
+    // splits rows where half of the non-zeros of the range are on each side
+    private class SpMVTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] x, y;
+        private final int[] xIdx;
+        private final int from, to;
+        private final int grain;     // non-zeros per task
+
+        SpMVTask(double[] x, int[] xIdx, double[] y, int from, int to, int grain) {
+            this.x = x;
+            this.xIdx = xIdx;
+            this.y = y;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < 2 || rowPtr[to] - rowPtr[from] <= grain) {
+                spmv(x, xIdx, y, from, to);
+                return;
+            }
+            int half = (rowPtr[from] + rowPtr[to]) >>> 1;
+            int mid = Arrays.binarySearch(rowPtr, from, to + 1, half);
+            if (mid < 0) mid = -mid - 1;
+            mid = Math.max(from + 1, Math.min(to - 1, mid));
+            invokeAll(new SpMVTask(x, xIdx, y, from, mid, grain), new SpMVTask(x, xIdx, y, mid, to, grain));
+        }
+    }
+
+    // return the transpose, O(nnz + N). its CSR arrays are the compressed sparse column (CSC)
+    // arrays of this matrix and vice versa, so this also converts between the two forms
+    public CellMatrix transpose() {
+        int nnz = nnz();
+        int[] tPtr = new int[N + 1];
+        for (int k = 0; k < nnz; k++)
+            tPtr[colIdx[k] + 1]++;
+        for (int j = 0; j < N; j++)
+            tPtr[j + 1] += tPtr[j];
+        int[] next = Arrays.copyOf(tPtr, N);
+        int[] tIdx = new int[nnz];
+        double[] tVals = new double[nnz];
+        // rows are visited in order, so the columns of the transpose come out sorted
+        for (int i = 0; i < M; i++)
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+                int p = next[colIdx[k]]++;
+                tIdx[p] = i;
+                tVals[p] = vals[k];
+            }
+        return new CellMatrix(N, M, tPtr, tIdx, tVals);
+    }
+
+    // return C = A * B for a sparse B, row by row with a sparse accumulator (Gustavson).
+    // only the non-zeros of C are ever stored, e.g. X * X^T never densifies
+    public CellMatrix times(CellMatrix B) {
+        if (N != B.M) throw new RuntimeException("Illegal matrix dimensions.");
+
+        // work[i] = multiply-adds for rows 0..i-1 of C
+        long[] work = new long[M + 1];
+        for (int i = 0; i < M; i++) {
+            long w = 0;
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++)
+                w += B.rowPtr[colIdx[k] + 1] - B.rowPtr[colIdx[k]];
+            work[i + 1] = work[i] + w;
+        }
+
+        ForkJoinPool pool = work[M] < Matrix.parallelThreshold() || M < 2 ? null : Matrix.pool();
+        int n = pool == null || pool.getParallelism() < 2 ? 1 : Math.min(M, 8 * pool.getParallelism());
+        final ProductRows[] parts = new ProductRows[n];
+        int from = 0;
+        for (int t = 0; t < n; t++) {
+            int to = M;
+            if (t < n - 1) {
+                to = Arrays.binarySearch(work, from, M + 1, work[M] / n * (t + 1));
+                if (to < 0) to = -to - 1;
+                to = Math.max(from, Math.min(M, to));
+            }
+            parts[t] = new ProductRows(B, from, to);
+            from = to;
+        }
+        if (n == 1)
+            parts[0].compute();
+        else
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(parts);
+                }
+            });
+
+        // concatenate the parts
+        int[] cPtr = new int[M + 1];
+        int nnz = 0;
+        for (ProductRows part : parts) {
+            for (int i = part.from; i < part.to; i++)
+                cPtr[i + 1] = cPtr[i] + part.rowNnz[i - part.from];
+            nnz += part.nnz;
+        }
+        int[] cIdx = new int[nnz];
+        double[] cVals = new double[nnz];
+        for (ProductRows part : parts) {
+            System.arraycopy(part.cols, 0, cIdx, cPtr[part.from], part.nnz);
+            System.arraycopy(part.vals, 0, cVals, cPtr[part.from], part.nnz);
+        }
+        return new CellMatrix(M, B.N, cPtr, cIdx, cVals);
+    }
+
+    // sparse accumulator of every thread, reused across rows, tasks and products so that
+    // times(CellMatrix) allocates O(B.N) once per worker instead of once per task
+    private static final ThreadLocal<Accumulator> ACCUMULATORS = new ThreadLocal<Accumulator>() {
+        @Override
+        protected Accumulator initialValue() {
+            return new Accumulator();
+        }
+    };
+
+    // one row of C: acc[c] is C(i, c) for the columns c in touched[0..count-1]. a column is
+    // touched in the current row if mark[c] == stamp, so starting a row is O(1)
+    private static final class Accumulator {
+        double[] acc = new double[0];
+        int[] mark = new int[0];
+        int[] touched = new int[0];
+        int stamp;
+
+        // start a new row of up to N columns
+        void next(int N) {
+            if (acc.length < N) {
+                acc = new double[N];
+                mark = new int[N];
+                touched = new int[N];
+                stamp = 0;
+            }
+            if (stamp == Integer.MAX_VALUE) {
+                Arrays.fill(mark, 0);
+                stamp = 0;
+            }
+            stamp++;
+        }
+    }
+
+    // rows from..to-1 of A * B, into private CSR arrays
+    private class ProductRows extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CellMatrix B;
+        private final int from, to;
+        private int[] rowNnz;
+        private int[] cols = new int[16];
+        private double[] vals = new double[16];
+        private int nnz;
+
+        ProductRows(CellMatrix B, int from, int to) {
+            this.B = B;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            rowNnz = new int[to - from];
+            if (from == to) return;
+            Accumulator row = ACCUMULATORS.get();
+            for (int i = from; i < to; i++) {
+                row.next(B.N);
+                double[] acc = row.acc;
+                int[] mark = row.mark, touched = row.touched;
+                int stamp = row.stamp;
+                int count = 0;
+                for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+                    double a = CellMatrix.this.vals[k];
+                    int r = colIdx[k];
+                    for (int q = B.rowPtr[r]; q < B.rowPtr[r + 1]; q++) {
+                        int c = B.colIdx[q];
+                        if (mark[c] != stamp) {
+                            mark[c] = stamp;
+                            acc[c] = a * B.vals[q];
+                            touched[count++] = c;
+                        }
+                        else
+                            acc[c] += a * B.vals[q];
+                    }
+                }
+                Arrays.sort(touched, 0, count);
+                if (nnz + count > cols.length) {
+                    int capacity = Math.max(nnz + count, cols.length + (cols.length >> 1));
+                    cols = Arrays.copyOf(cols, capacity);
+                    vals = Arrays.copyOf(vals, capacity);
+                }
+                int start = nnz;
+                for (int t = 0; t < count; t++) {
+                    int c = touched[t];
+                    if (acc[c] == 0.0) continue;
+                    cols[nnz] = c;
+                    vals[nnz++] = acc[c];
+                }
+                rowNnz[i - from] = nnz - start;
+            }
+        }
+    }
+
+    // print matrix to standard output, one "row col value" triple per non-zero
+    public void show() {
+        for (int i = 0; i < M; i++)
+            for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++)
+                System.out.println(i + " " + colIdx[k] + " " + vals[k]);
+    }
+
+    /**
+     * Collects (row, column, value) triples in any order (coordinate form) and turns them
+     * into a CellMatrix. Triples at the same position are summed; sums of 0.0 are dropped.
+     */
+    public static class Builder {
+        private final int M, N;
+        private int n;               // number of triples
+        private int[] rows = new int[16];
+        private int[] cols = new int[16];
+        private double[] vals = new double[16];
+
+        public Builder(int M, int N) {
+            if (M < 0 || N < 0) throw new RuntimeException("Illegal matrix dimensions.");
+            this.M = M;
+            this.N = N;
+        }
+
+        // add v to element (i, j)
+        public Builder add(int i, int j, double v) {
+            if (i < 0 || i >= M || j < 0 || j >= N) throw new RuntimeException("Illegal matrix index.");
+            if (n == rows.length) {
+                int capacity = n + (n >> 1);
+                rows = Arrays.copyOf(rows, capacity);
+                cols = Arrays.copyOf(cols, capacity);
+                vals = Arrays.copyOf(vals, capacity);
+            }
+            rows[n] = i;
+            cols[n] = j;
+            vals[n] = v;
+            n++;
+            return this;
+        }
+
+        public CellMatrix build() {
+            // counting sort by row
+            int[] rowPtr = new int[M + 1];
+            for (int t = 0; t < n; t++)
+                rowPtr[rows[t] + 1]++;
+            for (int i = 0; i < M; i++)
+                rowPtr[i + 1] += rowPtr[i];
+            int[] next = Arrays.copyOf(rowPtr, M);
+            long[] keys = new long[n];   // column in the high bits, triple in the low bits
+            for (int t = 0; t < n; t++)
+                keys[next[rows[t]]++] = ((long) cols[t] << 32) | t;
+
+            // sort every row by column, then merge equal columns
+            int[] colIdx = new int[n];
+            double[] v = new double[n];
+            int nnz = 0;
+            int start = 0;
+            for (int i = 0; i < M; i++) {
+                int end = rowPtr[i + 1];
+                Arrays.sort(keys, start, end);
+                rowPtr[i] = nnz;
+                for (int k = start; k < end; ) {
+                    int col = (int) (keys[k] >>> 32);
+                    double s = 0.0;
+                    for (; k < end && (int) (keys[k] >>> 32) == col; k++)
+                        s += vals[(int) keys[k]];
+                    if (s == 0.0) continue;
+                    colIdx[nnz] = col;
+                    v[nnz] = s;
+                    nnz++;
+                }
+                start = end;
+            }
+            rowPtr[M] = nnz;
+            return new CellMatrix(M, N, rowPtr, Arrays.copyOf(colIdx, nnz), Arrays.copyOf(v, nnz));
+        }
+    }
+
+    // random triples at about density * M * N positions, many of them repeated and some cancelling
+    // out, added to both a Builder and the dense array a
+    private static CellMatrix random(Random r, int M, int N, double density, double[][] a) {
+        Builder builder = new Builder(M, N);
+        long n = (long) (density * M * N);
+        for (long t = 0; t < n; t++) {
+            int i = r.nextInt(M), j = r.nextInt(N);
+            double v = r.nextDouble() - 0.5;
+            builder.add(i, j, v);
+            a[i][j] += v;
+            if (r.nextInt(4) == 0) {
+                builder.add(i, j, v);
+                a[i][j] += v;
+            }
+            if (r.nextInt(8) == 0) {
+                builder.add(i, j, -a[i][j]);
+                a[i][j] = 0.0;
+            }
+        }
+        return builder.build();
+    }
+
+    // is A in valid CSR form, holding exactly the non-zeros of a?
+    private static boolean holds(CellMatrix A, double[][] a) {
+        boolean ok = A.rowPtr[0] == 0;
+        int nnz = 0;
+        for (int i = 0; i < A.M; i++) {
+            ok &= A.rowPtr[i] <= A.rowPtr[i + 1];
+            for (int k = A.rowPtr[i]; k < A.rowPtr[i + 1]; k++)
+                ok &= A.vals[k] != 0.0 && (k == A.rowPtr[i] || A.colIdx[k - 1] < A.colIdx[k]);
+            for (int j = 0; j < A.N; j++) {
+                ok &= A.get(i, j) == a[i][j];
+                if (a[i][j] != 0.0) nnz++;
+            }
+        }
+        return ok && A.nnz() == nnz;
+    }
+
+    // test function for Builder: repeated triples are summed in the order they were added and
+    // positions summing to 0.0 are dropped; the Matrix constructor and toMatrix() agree with it
+    private static void testBuilder() {
+        Random r = new Random();
+        int M = 1 + r.nextInt(50), N = 1 + r.nextInt(50);
+        double[][] a = new double[M][N];
+        CellMatrix A = random(r, M, N, 2 * r.nextDouble(), a);
+        Matrix D = A.toMatrix();
+        boolean ok = holds(A, a) && holds(new CellMatrix(D), a) && D.eq(new Matrix(a));
+        ok &= holds(new Builder(M, N).build(), new double[M][N]);
+        System.out.println(ok);
+    }
+
+    // test function for the products with a vector: dense x, sparse x denser and sparser than the
+    // rows, sparse y, and y = A y, against the loop over the dense array
+    private static void testSpMV(int M, int N, double density) {
+        Random r = new Random();
+        double[][] a = new double[M][N];
+        CellMatrix A = random(r, M, N, density, a);
+        double[] x = new double[N];
+        SparseVector sx = new SparseVector(N);
+        double xDensity = r.nextBoolean() ? r.nextDouble() : r.nextDouble() * density / 4;
+        for (int j = 0; j < N; j++)
+            if (r.nextDouble() < xDensity) {
+                x[j] = r.nextDouble() - 0.5;
+                sx.set(j, x[j]);
+            }
+        double[] ax = new double[M];
+        for (int i = 0; i < M; i++)
+            for (int j = 0; j < N; j++)
+                ax[i] += a[i][j] * x[j];
+
+        DenseVector y1 = new DenseVector(M), y2 = new DenseVector(M);
+        SparseVector y3 = new SparseVector(M);
+        A.times(new DenseVector(x), y1);
+        A.times(sx, y2);
+        A.times(sx, y3);
+        boolean ok = true;
+        for (int i = 0; i < M; i++)
+            ok &= Math.abs(y1.getDouble(i) - ax[i]) <= 1e-12 * (1 + N) && Math.abs(y2.getDouble(i) - ax[i]) <= 1e-12 * (1 + N)
+                  && y3.getDouble(i) == y2.getDouble(i);
+
+        // in place: y = A y for square A
+        if (M == N) {
+            DenseVector y = new DenseVector(x);
+            A.times(y, y);
+            for (int i = 0; i < M; i++)
+                ok &= y.getDouble(i) == y1.getDouble(i);
+        }
+        System.out.println(ok);
+    }
+
+    // test function for transpose(): the CSR arrays of the transpose hold the transposed dense array
+    private static void testTranspose() {
+        Random r = new Random();
+        int M = 1 + r.nextInt(100), N = 1 + r.nextInt(100);
+        double[][] a = new double[M][N], t = new double[N][M];
+        CellMatrix A = random(r, M, N, r.nextDouble(), a);
+        for (int i = 0; i < M; i++)
+            for (int j = 0; j < N; j++)
+                t[j][i] = a[i][j];
+        CellMatrix T = A.transpose();
+        System.out.println(T.rows() == N && T.columns() == M && holds(T, t) && holds(T.transpose(), a));
+    }
+
+    // test function for times(CellMatrix): A * B and A * A^T against the triple loop over the
+    // dense arrays. C must be valid CSR without stored zeros
+    private static void testTimes(int M, int K, int N, double density) {
+        Random r = new Random();
+        double[][] a = new double[M][K], b = new double[K][N];
+        CellMatrix A = random(r, M, K, density, a), B = random(r, K, N, density, b);
+        double[][] ab = new double[M][N], aat = new double[M][M];
+        for (int i = 0; i < M; i++)
+            for (int p = 0; p < K; p++) {
+                for (int j = 0; j < N; j++)
+                    ab[i][j] += a[i][p] * b[p][j];
+                for (int j = 0; j < M; j++)
+                    aat[i][j] += a[i][p] * a[j][p];
+            }
+        System.out.println(approximates(A.times(B), ab, K) && approximates(A.times(A.transpose()), aat, K));
+    }
+
+    // is C in valid CSR form without stored zeros, and within rounding of c?
+    private static boolean approximates(CellMatrix C, double[][] c, int n) {
+        boolean ok = C.rowPtr[0] == 0;
+        for (int i = 0; i < C.M; i++) {
+            for (int k = C.rowPtr[i]; k < C.rowPtr[i + 1]; k++)
+                ok &= C.vals[k] != 0.0 && (k == C.rowPtr[i] || C.colIdx[k - 1] < C.colIdx[k]);
+            for (int j = 0; j < C.N; j++)
+                ok &= Math.abs(C.get(i, j) - c[i][j]) <= 1e-12 * (1 + n);
+        }
+        return ok;
+    }
+
+    // test client
+    public static void main(String[] args) {
+        Random r = new Random();
+        for (int i = 0; i < 10; i++) {
+            testBuilder();
+            int M = 1 + r.nextInt(100);
+            testSpMV(M, r.nextBoolean() ? M : 1 + r.nextInt(100), r.nextDouble());
+            testTranspose();
+            testTimes(1 + r.nextInt(100), 1 + r.nextInt(100), 1 + r.nextInt(100), r.nextDouble() / 4);
+        }
 
+        // SpMV split over the pool: enough non-zeros for several tasks, and a threshold of 1
+        Matrix.setPool(new ForkJoinPool(4));
+        Matrix.setParallelThreshold(1);
+        try {
+            testSpMV(1000, 1000, 0.1);
+            testSpMV(3000, 200, 0.2);
+            testTimes(300, 200, 300, 0.05);
+        }
+        finally {
+            Matrix.setPool(null);
+            Matrix.setParallelThreshold(1L << 20);
+        }
+    }
 }
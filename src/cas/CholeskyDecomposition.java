@@ -0,0 +1,226 @@
+package cas;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/*************************************************************************
+ *  Cholesky decomposition A = L L^T of a symmetric positive definite
+ *  N-by-N matrix, for the normal-equation and kernel systems that
+ *  Matrix.solve() would handle with a full LU.
+ *
+ *  Only the lower triangle of A is read and only the lower triangle of
+ *  L is computed, so the factorization takes about N^3/3 flops, half of
+ *  LU. It is blocked like LUDecomposition: the diagonal block is
+ *  factored, the panel below it is solved, and the trailing lower
+ *  triangle is updated with one multiply (MatrixTask.LOWER_TIMES)
+ *  that runs on Matrix.pool() for large N.
+ *
+ *  That update goes through strided Matrix views, which need a constant
+ *  row stride, so the factorization works in a full N-by-N buffer. Once
+ *  it is done L is packed by rows into N(N+1)/2 doubles, which is all
+ *  the decomposition keeps for det(), getL() and solve().
+ *
+ *************************************************************************/
+
+final public class CholeskyDecomposition {
+    private static final int NB = 64;    // columns per panel
+
+    private final int N;
+    private final double[] l;            // L packed by rows, L(i, j) at i(i+1)/2 + j for j <= i
+
+    // factor A, which must be square, symmetric and positive definite; its upper triangle is not read
+    public CholeskyDecomposition(Matrix A) {
+        if (A.rows() != A.columns()) throw new RuntimeException("Illegal matrix dimensions.");
+        N = A.rows();
+        double[] a = new double[N * N];
+        for (int i = 0; i < N; i++)
+            for (int j = 0; j <= i; j++)
+                a[i * N + j] = A.get(i, j);
+        factor(a, N);
+
+        // row i moves from i * N to i(i+1)/2, never past itself, so rows can be packed in place
+        for (int i = 1; i < N; i++)
+            System.arraycopy(a, i * N, a, row(i), i + 1);
+        l = Arrays.copyOf(a, row(N));
+    }
+
+    // offset of row i of the packed L
+    private static int row(int i) {
+        return i * (i + 1) / 2;
+    }
+
+    // blocked factorization of the lower triangle of the N-by-N row-major l, in place
+    private static void factor(double[] l, int N) {
+
+        for (int k0 = 0; k0 < N; k0 += NB) {
+            int k1 = Math.min(N, k0 + NB);
+
+            // L11, unblocked
+            for (int j = k0; j < k1; j++) {
+                double d = l[j * N + j] - dot(l, N, j, j, k0, j);
+                if (!(d > 0.0)) throw new RuntimeException("Matrix is not symmetric positive definite.");
+                d = Math.sqrt(d);
+                l[j * N + j] = d;
+                for (int i = j + 1; i < k1; i++)
+                    l[i * N + j] = (l[i * N + j] - dot(l, N, i, j, k0, j)) / d;
+            }
+            if (k1 == N) break;
+
+            // L21 = A21 L11^-T, row by row
+            for (int i = k1; i < N; i++)
+                for (int j = k0; j < k1; j++)
+                    l[i * N + j] = (l[i * N + j] - dot(l, N, i, j, k0, j)) / l[j * N + j];
+
+            // lower triangle of A22 -= L21 L21^T
+            Matrix L21 = new Matrix(N - k1, k1 - k0, l, k1 * N + k0, N, 1);
+            Matrix A22 = new Matrix(N - k1, N - k1, l, k1 * N + k1, N, 1);
+            MatrixTask.run(MatrixTask.LOWER_TIMES, -1.0, L21, L21.transposeView(), A22,
+                           (long) (N - k1) * (N - k1 + 1) / 2 * (k1 - k0));
+        }
+    }
+
+    // sum of L(i, p) * L(j, p) for p in from..to-1, L N-by-N row-major
+    private static double dot(double[] l, int N, int i, int j, int from, int to) {
+        double s = 0.0;
+        for (int p = from; p < to; p++)
+            s += l[i * N + p] * l[j * N + p];
+        return s;
+    }
+
+    // return the determinant, the square of the product of the diagonal of L
+    public double det() {
+        double d = 1.0;
+        for (int i = 0; i < N; i++)
+            d *= l[row(i) + i];
+        return d * d;
+    }
+
+    // return L, N-by-N lower triangular
+    public Matrix getL() {
+        Matrix L = new Matrix(N, N);
+        for (int i = 0; i < N; i++)
+            System.arraycopy(l, row(i), L.data, i * N, i + 1);
+        return L;
+    }
+
+    // return X = A^-1 B for an N-by-K matrix B, O(N^2) per column
+    public Matrix solve(Matrix B) {
+        if (B.rows() != N) throw new RuntimeException("Illegal matrix dimensions.");
+        int K = B.columns();
+        Matrix X = new Matrix(N, K);
+        double[] x = X.data;
+        for (int i = 0; i < N; i++)
+            for (int j = 0; j < K; j++)
+                x[i * K + j] = B.get(i, j);
+
+        // forward substitution, L Y = B
+        for (int i = 0; i < N; i++) {
+            int r = row(i);
+            for (int k = 0; k < i; k++) {
+                double m = l[r + k];
+                if (m == 0.0) continue;
+                for (int j = 0; j < K; j++)
+                    x[i * K + j] -= m * x[k * K + j];
+            }
+            double d = l[r + i];
+            for (int j = 0; j < K; j++)
+                x[i * K + j] /= d;
+        }
+
+        // back substitution, L^T X = Y; row i of L is column i of L^T
+        for (int i = N - 1; i >= 0; i--) {
+            int r = row(i);
+            double d = l[r + i];
+            for (int j = 0; j < K; j++)
+                x[i * K + j] /= d;
+            for (int k = 0; k < i; k++) {
+                double m = l[r + k];
+                if (m == 0.0) continue;
+                for (int j = 0; j < K; j++)
+                    x[k * K + j] -= m * x[i * K + j];
+            }
+        }
+        return X;
+    }
+
+    // random N-by-N G G^T / N + I, symmetric positive definite with a determinant that stays in
+    // range, and NaN above the diagonal since only the lower triangle may be read
+    private static Matrix randomSPD(int N) {
+        Matrix G = Matrix.random(N, N), A = G.times(G.transposeView());
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j <= i; j++)
+                A.data[i * N + j] /= N;
+            A.data[i * N + i] += 1.0;
+            for (int j = i + 1; j < N; j++)
+                A.data[i * N + j] = Double.NaN;
+        }
+        return A;
+    }
+
+    // test function: L against the unblocked Cholesky-Banachiewicz loop, det() against the
+    // square of its diagonal, and the residual of solve(), for sizes on both sides of the panel width
+    private static void testSolve(int N) {
+        Matrix A = randomSPD(N), B = Matrix.random(N, 1 + new Random().nextInt(5));
+        CholeskyDecomposition chol = new CholeskyDecomposition(A);
+
+        double[][] l = new double[N][N];
+        double det = 1.0;
+        for (int i = 0; i < N; i++) {
+            for (int j = 0; j <= i; j++) {
+                double s = A.get(i, j);
+                for (int p = 0; p < j; p++)
+                    s -= l[i][p] * l[j][p];
+                l[i][j] = i == j ? Math.sqrt(s) : s / l[j][j];
+            }
+            det *= l[i][i] * l[i][i];
+        }
+        Matrix L = chol.getL();
+        boolean ok = Math.abs(chol.det() - det) <= 1e-9 * det;
+        for (int i = 0; i < N; i++)
+            for (int j = 0; j < N; j++)
+                ok &= Math.abs(L.get(i, j) - (j <= i ? l[i][j] : 0.0)) <= 1e-10 * (1 + Math.abs(l[i][j]));
+
+        Matrix X = chol.solve(B);
+        for (int i = 0; i < N; i++)
+            for (int j = 0; j < B.columns(); j++) {
+                double s = 0.0;
+                for (int k = 0; k < N; k++)
+                    s += (k <= i ? A.get(i, k) : A.get(k, i)) * X.get(k, j);
+                ok &= Math.abs(s - B.get(i, j)) <= 1e-10;
+            }
+        System.out.println(ok);
+    }
+
+    // test function: a negative pivot in the last panel, and a NaN, must both be refused
+    private static void testNotSPD(int N) {
+        int refused = 0;
+        Matrix A = randomSPD(N);
+        A.data[N * N - 1] = -1.0;
+        try { new CholeskyDecomposition(A); } catch (RuntimeException e) { if (e.getMessage().equals("Matrix is not symmetric positive definite.")) refused++; }
+        A = randomSPD(N);
+        A.data[(N - 1) * N] = Double.NaN;
+        try { new CholeskyDecomposition(A); } catch (RuntimeException e) { if (e.getMessage().equals("Matrix is not symmetric positive definite.")) refused++; }
+        System.out.println(refused == 2);
+    }
+
+    // test client
+    public static void main(String[] args) {
+        Random r = new Random();
+        for (int i = 0; i < 10; i++) {
+            testSolve(1 + r.nextInt(3 * NB));
+            testNotSPD(1 + r.nextInt(3 * NB));
+        }
+
+        // the trailing update on the pool, split down to single blocks
+        Matrix.setPool(new ForkJoinPool(4));
+        Matrix.setParallelThreshold(1);
+        try {
+            testSolve(4 * NB + 1 + r.nextInt(NB));
+        }
+        finally {
+            Matrix.setPool(null);
+            Matrix.setParallelThreshold(1L << 20);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package cas;
+
+import java.util.Random;
+
+/*************************************************************************
+ *  LU decomposition with partial pivoting, PA = LU, of an N-by-N matrix.
+ *
+ *  The factorization is done once in the constructor, after which every
+ *  solve costs O(N^2) per right-hand side column instead of the O(N^3)
+ *  of a fresh Gaussian elimination.
+ *
+ *  The factorization is blocked: a panel of NB columns is factored with
+ *  partial pivoting, the matching block row of U is solved, and the
+ *  trailing sub-matrix is updated with one matrix multiply, which goes
+ *  through MatrixKernels and runs on Matrix.pool() for large N.
+ *
+ *  L (unit lower, diagonal not stored) and U share one row-major array.
+ *
+ *************************************************************************/
+
+final public class LUDecomposition {
+    private static final int NB = 64;    // columns per panel
+
+    private final int N;
+    private final double[] lu;           // L below the diagonal, U on and above it
+    private final int[] piv;             // row i of LU is row piv[i] of A
+    private final int pivSign;           // +1 or -1, the sign of the permutation
+
+    // factor A, which must be square
+    public LUDecomposition(Matrix A) {
+        if (A.rows() != A.columns()) throw new RuntimeException("Illegal matrix dimensions.");
+        N = A.rows();
+        lu = new double[N * N];
+        for (int i = 0; i < N; i++)
+            for (int j = 0; j < N; j++)
+                lu[i * N + j] = A.get(i, j);
+        piv = new int[N];
+        for (int i = 0; i < N; i++)
+            piv[i] = i;
+
+        int sign = 1;
+        for (int k0 = 0; k0 < N; k0 += NB) {
+            int k1 = Math.min(N, k0 + NB);
+            sign *= factorPanel(k0, k1);
+            if (k1 == N) break;
+
+            // U12 = L11^-1 A12
+            for (int k = k0; k < k1; k++)
+                for (int i = k + 1; i < k1; i++) {
+                    double m = lu[i * N + k];
+                    if (m == 0.0) continue;
+                    for (int j = k1; j < N; j++)
+                        lu[i * N + j] -= m * lu[k * N + j];
+                }
+
+            // A22 -= L21 U12
+            Matrix L21 = new Matrix(N - k1, k1 - k0, lu, k1 * N + k0, N, 1);
+            Matrix U12 = new Matrix(k1 - k0, N - k1, lu, k0 * N + k1, N, 1);
+            Matrix A22 = new Matrix(N - k1, N - k1, lu, k1 * N + k1, N, 1);
+            MatrixTask.run(MatrixTask.TIMES, -1.0, L21, U12, A22, (long) (N - k1) * (k1 - k0) * (N - k1));
+        }
+        pivSign = sign;
+    }
+
+    // unblocked LU of columns k0..k1-1, rows k0..N-1; row swaps are applied to whole rows.
+    // returns the sign of the swaps
+    private int factorPanel(int k0, int k1) {
+        int sign = 1;
+        for (int k = k0; k < k1; k++) {
+
+            // find pivot row and swap
+            int max = k;
+            for (int i = k + 1; i < N; i++)
+                if (Math.abs(lu[i * N + k]) > Math.abs(lu[max * N + k]))
+                    max = i;
+            if (max != k) {
+                for (int j = 0; j < N; j++) {
+                    double t = lu[k * N + j];
+                    lu[k * N + j] = lu[max * N + j];
+                    lu[max * N + j] = t;
+                }
+                int t = piv[k];
+                piv[k] = piv[max];
+                piv[max] = t;
+                sign = -sign;
+            }
+
+            // singular column: nothing to eliminate, solve() will refuse
+            double d = lu[k * N + k];
+            if (d == 0.0) continue;
+
+            for (int i = k + 1; i < N; i++) {
+                double m = lu[i * N + k] /= d;
+                if (m == 0.0) continue;
+                for (int j = k + 1; j < k1; j++)
+                    lu[i * N + j] -= m * lu[k * N + j];
+            }
+        }
+        return sign;
+    }
+
+    // is the matrix singular?
+    public boolean isSingular() {
+        for (int i = 0; i < N; i++)
+            if (lu[i * N + i] == 0.0) return true;
+        return false;
+    }
+
+    // return the determinant
+    public double det() {
+        double d = pivSign;
+        for (int i = 0; i < N; i++)
+            d *= lu[i * N + i];
+        return d;
+    }
+
+    // return L, N-by-N unit lower triangular
+    public Matrix getL() {
+        Matrix L = new Matrix(N, N);
+        for (int i = 0; i < N; i++) {
+            System.arraycopy(lu, i * N, L.data, i * N, i);
+            L.data[i * N + i] = 1.0;
+        }
+        return L;
+    }
+
+    // return U, N-by-N upper triangular
+    public Matrix getU() {
+        Matrix U = new Matrix(N, N);
+        for (int i = 0; i < N; i++)
+            System.arraycopy(lu, i * N + i, U.data, i * N + i, N - i);
+        return U;
+    }
+
+    // return the pivot, row i of LU is row getPivot()[i] of A
+    public int[] getPivot() {
+        return piv.clone();
+    }
+
+    // return X = A^-1 B for an N-by-K matrix B, O(N^2) per column
+    public Matrix solve(Matrix B) {
+        if (B.rows() != N) throw new RuntimeException("Illegal matrix dimensions.");
+        if (isSingular()) throw new RuntimeException("Matrix is singular.");
+        int K = B.columns();
+
+        // X = PB, row-major so that every step below is a row operation
+        Matrix X = new Matrix(N, K);
+        double[] x = X.data;
+        for (int i = 0; i < N; i++)
+            for (int j = 0; j < K; j++)
+                x[i * K + j] = B.get(piv[i], j);
+
+        // forward substitution, L Y = PB
+        for (int i = 0; i < N; i++)
+            for (int k = 0; k < i; k++) {
+                double m = lu[i * N + k];
+                if (m == 0.0) continue;
+                for (int j = 0; j < K; j++)
+                    x[i * K + j] -= m * x[k * K + j];
+            }
+
+        // back substitution, U X = Y
+        for (int i = N - 1; i >= 0; i--) {
+            for (int k = i + 1; k < N; k++) {
+                double m = lu[i * N + k];
+                if (m == 0.0) continue;
+                for (int j = 0; j < K; j++)
+                    x[i * K + j] -= m * x[k * K + j];
+            }
+            double d = lu[i * N + i];
+            for (int j = 0; j < K; j++)
+                x[i * K + j] /= d;
+        }
+        return X;
+    }
+
+    // return A^-1
+    public Matrix inverse() {
+        return solve(Matrix.identity(N));
+    }
+
+    // is max |A X - B| within rounding of the sums in A X?
+    private static boolean solves(Matrix A, Matrix X, Matrix B) {
+        double scale = 0.0;
+        for (int i = 0; i < X.rows(); i++)
+            for (int j = 0; j < X.columns(); j++)
+                scale = Math.max(scale, Math.abs(X.get(i, j)));
+        Matrix R = A.times(X).minus(B);
+        for (int i = 0; i < R.rows(); i++)
+            for (int j = 0; j < R.columns(); j++)
+                if (!(Math.abs(R.get(i, j)) <= 1e-10 * (1 + A.rows() * scale))) return false;
+        return true;
+    }
+
+    // test function: PA = LU, solve() and det() against plain Gaussian elimination, for sizes on
+    // both sides of the panel width. zeroPivot puts a 0 at A(0, 0), which only pivoting gets past
+    private static void testSolve(boolean zeroPivot) {
+        Random r = new Random();
+        int N = (zeroPivot ? 2 : 1) + r.nextInt(3 * NB), K = 1 + r.nextInt(5);
+        Matrix A = Matrix.random(N, N), B = Matrix.random(N, K);
+        if (zeroPivot) A.data[0] = 0.0;
+        LUDecomposition lu = new LUDecomposition(A);
+        int[] piv = lu.getPivot();
+        Matrix LU = lu.getL().times(lu.getU());
+        boolean ok = !lu.isSingular();
+        for (int i = 0; i < N; i++)
+            for (int j = 0; j < N; j++)
+                ok &= Math.abs(LU.get(i, j) - A.get(piv[i], j)) <= 1e-12 * (1 + N);
+        ok &= solves(A, lu.solve(B), B) && solves(A, lu.inverse(), Matrix.identity(N));
+
+        // unblocked elimination with partial pivoting for the determinant
+        double[][] a = new double[N][];
+        for (int i = 0; i < N; i++) {
+            a[i] = new double[N];
+            for (int j = 0; j < N; j++)
+                a[i][j] = A.get(i, j);
+        }
+        double det = 1.0;
+        for (int k = 0; k < N; k++) {
+            int max = k;
+            for (int i = k + 1; i < N; i++)
+                if (Math.abs(a[i][k]) > Math.abs(a[max][k])) max = i;
+            double[] t = a[k]; a[k] = a[max]; a[max] = t;
+            if (max != k) det = -det;
+            det *= a[k][k];
+            for (int i = k + 1; i < N; i++) {
+                double m = a[i][k] / a[k][k];
+                for (int j = k; j < N; j++)
+                    a[i][j] -= m * a[k][j];
+            }
+        }
+        ok &= Math.abs(lu.det() - det) <= 1e-9 * Math.abs(det);
+        System.out.println(ok);
+    }
+
+    // test function: a zero column makes A exactly singular, solve() must refuse it
+    private static void testSingular() {
+        Random r = new Random();
+        int N = 2 + r.nextInt(2 * NB);
+        Matrix A = Matrix.random(N, N);
+        int j = r.nextInt(N);
+        for (int i = 0; i < N; i++)
+            A.data[i * N + j] = 0.0;
+        LUDecomposition lu = new LUDecomposition(A);
+        boolean ok = lu.isSingular() && lu.det() == 0.0;
+        try {
+            lu.solve(Matrix.random(N, 1));
+            ok = false;
+        }
+        catch (RuntimeException e) {
+            ok &= e.getMessage().equals("Matrix is singular.");
+        }
+        System.out.println(ok);
+    }
+
+    // test client
+    public static void main(String[] args) {
+        for (int i = 0; i < 10; i++) {
+            testSolve(false);
+            testSolve(true);
+            testSingular();
+        }
+    }
+}
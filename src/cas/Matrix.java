@@ -1,10 +1,36 @@
 package cas;
 
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import cas.vector.DenseVector;
+import cas.vector.FrozenSparseVector;
+import cas.vector.SparseVector;
+import cas.vector.VectorArrays;
+
 /*************************************************************************
  *  Compilation:  javac Matrix.java
  *  Execution:    java Matrix
  *
  *  A bare-bones immutable data type for M-by-N matrices.
+ *
+ *  times(), plus(), minus() and transpose() run in parallel on a
+ *  ForkJoinPool once their work (multiply-adds for times(), elements
+ *  for the others) reaches the parallel threshold, see setPool() and
+ *  setParallelThreshold().
+ *
+ *  The elements are kept in one row-major double[] addressed through
+ *  an offset and row/column strides. Since a Matrix never changes,
+ *  transposeView() and subMatrix() can share that array instead of
+ *  copying it.
+ *
+ *  The one exception to immutability is the out (or C) parameter of
+ *  plus(B, out), minus(B, out), times(B, out), timesAdd(alpha, B, C) and
+ *  transpose(out), which is overwritten so that iterative code can
+ *  reuse its matrices instead of allocating new ones. wrap() shares a
+ *  caller's array for such buffers, so that results can be read back
+ *  from the array without get().
  *  @author Robert Sedgewick and Kevin Wayne.
  *
  *************************************************************************/
@@ -12,34 +38,72 @@ package cas;
 final public class Matrix {
     private final int M;             // number of rows
     private final int N;             // number of columns
-    private final double[][] data;   // M-by-N array
+
+    // element (i, j) is data[offset + i * rowStride + j * colStride]; views share data
+    final double[] data;
+    final int offset;
+    final int rowStride;
+    final int colStride;
+
+    private static ForkJoinPool pool;                       // null until first needed
+    private static volatile long parallelThreshold = 1L << 20;
 
     // create M-by-N matrix of 0's
     public Matrix(int M, int N) {
-        this.M = M;
-        this.N = N;
-        data = new double[M][N];
+        this(M, N, new double[size(M, N)], 0, N, 1);
     }
 
     // create matrix based on 2d array
     public Matrix(double[][] data) {
-        M = data.length;
-        N = data[0].length;
-        this.data = new double[M][N];
+        this(data.length, data[0].length);
+        for (int i = 0; i < M; i++)
+            System.arraycopy(data[i], 0, this.data, i * N, N);
+    }
+
+    // create M-by-N matrix from the first M*N elements of a row-major array
+    public Matrix(int M, int N, double[] data) {
+        this(M, N);
+        if (data.length < M * N) throw new RuntimeException("Illegal matrix dimensions.");
+        System.arraycopy(data, 0, this.data, 0, M * N);
+    }
+
+    // M-by-N row-major matrix over the first M*N elements of data itself, not a copy. the caller must
+    // not change data while the matrix is an operand, only use it as an out buffer or read it
+    public static Matrix wrap(int M, int N, double[] data) {
+        if (data.length < size(M, N)) throw new RuntimeException("Illegal matrix dimensions.");
+        return new Matrix(M, N, data, 0, N, 1);
+    }
+
+    // copy constructor, the copy is contiguous and row-major
+    private Matrix(Matrix A) {
+        this(A.M, A.N);
         for (int i = 0; i < M; i++)
             for (int j = 0; j < N; j++)
-                    this.data[i][j] = data[i][j];
+                this.data[i * N + j] = A.get(i, j);
     }
 
-    // copy constructor
-    private Matrix(Matrix A) { this(A.data); }
+    private static int size(int M, int N) {
+        if (M < 0 || N < 0 || (long) M * N > Integer.MAX_VALUE)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        return M * N;
+    }
+
+    // view over existing storage
+    Matrix(int M, int N, double[] data, int offset, int rowStride, int colStride) {
+        this.M = M;
+        this.N = N;
+        this.data = data;
+        this.offset = offset;
+        this.rowStride = rowStride;
+        this.colStride = colStride;
+    }
 
     // create and return a random M-by-N matrix with values between 0 and 1
     public static Matrix random(int M, int N) {
         Matrix A = new Matrix(M, N);
         for (int i = 0; i < M; i++)
             for (int j = 0; j < N; j++)
-                A.data[i][j] = Math.random();
+                A.data[i * N + j] = Math.random();
         return A;
     }
 
@@ -47,34 +111,80 @@ final public class Matrix {
     public static Matrix identity(int N) {
         Matrix I = new Matrix(N, N);
         for (int i = 0; i < N; i++)
-            I.data[i][i] = 1;
+            I.data[i * N + i] = 1;
         return I;
     }
 
+    // run parallel operations on the given pool; null goes back to a default pool
+    public static synchronized void setPool(ForkJoinPool pool) {
+        Matrix.pool = pool;
+    }
+
+    // operations with less work than threshold run sequentially; Long.MAX_VALUE disables parallelism
+    public static void setParallelThreshold(long threshold) {
+        if (threshold < 1) throw new RuntimeException("Illegal parallel threshold.");
+        parallelThreshold = threshold;
+    }
+
+    static synchronized ForkJoinPool pool() {
+        if (pool == null)
+            pool = new ForkJoinPool();
+        return pool;
+    }
+
+    static long parallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public int rows() {
+        return M;
+    }
+
+    public int columns() {
+        return N;
+    }
+
+    // return element (i, j)
+    public double get(int i, int j) {
+        if (i < 0 || i >= M || j < 0 || j >= N) throw new RuntimeException("Illegal matrix index.");
+        return data[offset + i * rowStride + j * colStride];
+    }
+
     // swap rows i and j
     private void swap(int i, int j) {
-        double[] temp = data[i];
-        data[i] = data[j];
-        data[j] = temp;
+        int a = offset + i * rowStride, b = offset + j * rowStride;
+        for (int k = 0; k < N; k++, a += colStride, b += colStride) {
+            double temp = data[a];
+            data[a] = data[b];
+            data[b] = temp;
+        }
     }
 
-    // create and return the transpose of the invoking matrix
+    // create and return the transpose of the invoking matrix, as a contiguous copy
     public Matrix transpose() {
         Matrix A = new Matrix(N, M);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                A.data[j][i] = this.data[i][j];
+        MatrixTask.run(MatrixTask.TRANSPOSE, this, null, A, (long) M * N);
         return A;
     }
 
+    // return the transpose of the invoking matrix as a view sharing its elements, O(1)
+    public Matrix transposeView() {
+        return new Matrix(N, M, data, offset, colStride, rowStride);
+    }
+
+    // return rows i0..i1-1 and columns j0..j1-1 as a view sharing the elements, O(1)
+    public Matrix subMatrix(int i0, int i1, int j0, int j1) {
+        if (i0 < 0 || i1 > M || i0 > i1 || j0 < 0 || j1 > N || j0 > j1)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        return new Matrix(i1 - i0, j1 - j0, data, offset + i0 * rowStride + j0 * colStride, rowStride, colStride);
+    }
+
     // return C = A + B
     public Matrix plus(Matrix B) {
         Matrix A = this;
         if (B.M != A.M || B.N != A.N) throw new RuntimeException("Illegal matrix dimensions.");
         Matrix C = new Matrix(M, N);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                C.data[i][j] = A.data[i][j] + B.data[i][j];
+        MatrixTask.run(MatrixTask.PLUS, A, B, C, (long) M * N);
         return C;
     }
 
@@ -84,9 +194,7 @@ final public class Matrix {
         Matrix A = this;
         if (B.M != A.M || B.N != A.N) throw new RuntimeException("Illegal matrix dimensions.");
         Matrix C = new Matrix(M, N);
-        for (int i = 0; i < M; i++)
-            for (int j = 0; j < N; j++)
-                C.data[i][j] = A.data[i][j] - B.data[i][j];
+        MatrixTask.run(MatrixTask.MINUS, A, B, C, (long) M * N);
         return C;
     }
 
@@ -96,77 +204,157 @@ final public class Matrix {
         if (B.M != A.M || B.N != A.N) throw new RuntimeException("Illegal matrix dimensions.");
         for (int i = 0; i < M; i++)
             for (int j = 0; j < N; j++)
-                if (A.data[i][j] != B.data[i][j]) return false;
+                if (A.get(i, j) != B.get(i, j)) return false;
         return true;
     }
 
-    // return C = A * B
+    // return C = A * B, cache-blocked (see MatrixKernels)
     public Matrix times(Matrix B) {
         Matrix A = this;
         if (A.N != B.M) throw new RuntimeException("Illegal matrix dimensions.");
         Matrix C = new Matrix(A.M, B.N);
-        for (int i = 0; i < C.M; i++)
-            for (int j = 0; j < C.N; j++)
-                for (int k = 0; k < A.N; k++)
-                    C.data[i][j] += (A.data[i][k] * B.data[k][j]);
+        MatrixTask.run(MatrixTask.TIMES, A, B, C, (long) A.M * A.N * B.N);
         return C;
     }
 
 
-    // return x = A^-1 b, assuming A is square and has full rank
+    // out = A + B, returns out. out may be A or B itself
+    public Matrix plus(Matrix B, Matrix out) {
+        Matrix A = this;
+        if (B.M != A.M || B.N != A.N || out.M != M || out.N != N) throw new RuntimeException("Illegal matrix dimensions.");
+        checkAlias(out, A);
+        checkAlias(out, B);
+        MatrixTask.run(MatrixTask.PLUS, A, B, out, (long) M * N);
+        return out;
+    }
+
+    // out = A - B, returns out. out may be A or B itself
+    public Matrix minus(Matrix B, Matrix out) {
+        Matrix A = this;
+        if (B.M != A.M || B.N != A.N || out.M != M || out.N != N) throw new RuntimeException("Illegal matrix dimensions.");
+        checkAlias(out, A);
+        checkAlias(out, B);
+        MatrixTask.run(MatrixTask.MINUS, A, B, out, (long) M * N);
+        return out;
+    }
+
+    // out = A * B, returns out. out must not share storage with A or B, and is left unchanged if refused
+    public Matrix times(Matrix B, Matrix out) {
+        checkTimes(B, out);
+        out.clear();
+        MatrixTask.run(MatrixTask.TIMES, 1.0, this, B, out, (long) M * N * B.N);
+        return out;
+    }
+
+    // C += alpha A * B. C must not share storage with A or B
+    public void timesAdd(double alpha, Matrix B, Matrix C) {
+        checkTimes(B, C);
+        MatrixTask.run(MatrixTask.TIMES, alpha, this, B, C, (long) M * N * B.N);
+    }
+
+    // can C hold A * B without overlapping A or B?
+    private void checkTimes(Matrix B, Matrix C) {
+        Matrix A = this;
+        if (A.N != B.M || C.M != A.M || C.N != B.N) throw new RuntimeException("Illegal matrix dimensions.");
+        if (C.data == A.data || C.data == B.data) throw new RuntimeException("Output matrix shares storage with an operand.");
+    }
+
+    // out = A^T, returns out. out must not share storage with A
+    public Matrix transpose(Matrix out) {
+        if (out.M != N || out.N != M) throw new RuntimeException("Illegal matrix dimensions.");
+        if (out.data == data) throw new RuntimeException("Output matrix shares storage with an operand.");
+        MatrixTask.run(MatrixTask.TRANSPOSE, this, null, out, (long) M * N);
+        return out;
+    }
+
+    // an elementwise output may alias an operand only element for element
+    private static void checkAlias(Matrix out, Matrix X) {
+        if (out.data == X.data && (out.offset != X.offset || out.rowStride != X.rowStride || out.colStride != X.colStride))
+            throw new RuntimeException("Output matrix shares storage with an operand.");
+    }
+
+    // set every element to 0
+    private void clear() {
+        for (int i = 0; i < M; i++)
+            for (int j = 0, k = offset + i * rowStride; j < N; j++, k += colStride)
+                data[k] = 0.0;
+    }
+
+    // y = A x
+    public void times(DenseVector x, DenseVector y) {
+        timesAdd(1.0, x, y, false);
+    }
+
+    // y = A x; only the columns of A at the stored elements of x are read
+    public void times(SparseVector x, DenseVector y) {
+        timesAdd(1.0, x, y, false);
+    }
+
+    // y = A^T x, without forming A^T
+    public void transposeTimes(DenseVector x, DenseVector y) {
+        transposeView().timesAdd(1.0, x, y, false);
+    }
+
+    // y = A^T x; only the rows of A at the stored elements of x are read
+    public void transposeTimes(SparseVector x, DenseVector y) {
+        transposeView().timesAdd(1.0, x, y, false);
+    }
+
+    // y += alpha A x
+    public void timesAdd(double alpha, DenseVector x, DenseVector y) {
+        timesAdd(alpha, x, y, true);
+    }
+
+    // y += alpha A x; only the columns of A at the stored elements of x are read
+    public void timesAdd(double alpha, SparseVector x, DenseVector y) {
+        timesAdd(alpha, x, y, true);
+    }
+
+    // the kernels work on the arrays of x and y in place; x is copied only if it is y itself
+    private void timesAdd(double alpha, DenseVector x, DenseVector y, boolean add) {
+        if (x.size() != N || y.size() != M) throw new RuntimeException("Illegal matrix dimensions.");
+        double[] xs = VectorArrays.dense(x);
+        if (xs == VectorArrays.dense(y)) xs = Arrays.copyOf(xs, N);
+        double[] ys = load(y, add);
+        MatrixKernels.gemv(alpha, this, xs, ys);
+    }
+
+    private void timesAdd(double alpha, SparseVector x, DenseVector y, boolean add) {
+        if (x.size() != N || y.size() != M) throw new RuntimeException("Illegal matrix dimensions.");
+        FrozenSparseVector fx = x.freeze();
+        int[] idx = VectorArrays.indices(fx);
+        MatrixKernels.gemv(alpha, this, idx, VectorArrays.values(fx), idx.length, load(y, add));
+    }
+
+    // the backing array of y, cleared first unless it is accumulated into
+    private static double[] load(DenseVector y, boolean add) {
+        double[] ys = VectorArrays.dense(y);
+        if (!add)
+            Arrays.fill(ys, 0, y.size(), 0.0);
+        return ys;
+    }
+
+    // return x = A^-1 b, assuming A is square and has full rank; b may have several columns.
+    // to solve the same A many times, keep a LUDecomposition instead
     public Matrix solve(Matrix rhs) {
-        if (M != N || rhs.M != N || rhs.N != 1)
+        if (M != N || rhs.M != N)
             throw new RuntimeException("Illegal matrix dimensions.");
+        return new LUDecomposition(this).solve(rhs);
+    }
 
-        // create copies of the data
-        Matrix A = new Matrix(this);
-        Matrix b = new Matrix(rhs);
-
-        // Gaussian elimination with partial pivoting
-        for (int i = 0; i < N; i++) {
-
-            // find pivot row and swap
-            int max = i;
-            for (int j = i + 1; j < N; j++)
-                if (Math.abs(A.data[j][i]) > Math.abs(A.data[max][i]))
-                    max = j;
-            A.swap(i, max);
-            b.swap(i, max);
-
-            // singular
-            if (A.data[i][i] == 0.0) throw new RuntimeException("Matrix is singular.");
-
-            // pivot within b
-            for (int j = i + 1; j < N; j++)
-                b.data[j][0] -= b.data[i][0] * A.data[j][i] / A.data[i][i];
-
-            // pivot within A
-            for (int j = i + 1; j < N; j++) {
-                double m = A.data[j][i] / A.data[i][i];
-                for (int k = i+1; k < N; k++) {
-                    A.data[j][k] -= A.data[i][k] * m;
-                }
-                A.data[j][i] = 0.0;
-            }
-        }
-
-        // back substitution
-        Matrix x = new Matrix(N, 1);
-        for (int j = N - 1; j >= 0; j--) {
-            double t = 0.0;
-            for (int k = j + 1; k < N; k++)
-                t += A.data[j][k] * x.data[k][0];
-            x.data[j][0] = (b.data[j][0] - t) / A.data[j][j];
-        }
-        return x;
-   
+    // return x = A^-1 b for a symmetric positive definite A, in about half the work of solve();
+    // only the lower triangle of A is read. see CholeskyDecomposition
+    public Matrix solveSPD(Matrix rhs) {
+        if (M != N || rhs.M != N)
+            throw new RuntimeException("Illegal matrix dimensions.");
+        return new CholeskyDecomposition(this).solve(rhs);
     }
 
     // print matrix to standard output
     public void show() {
         for (int i = 0; i < M; i++) {
             for (int j = 0; j < N; j++) 
-                System.out.printf("%9.4f ", data[i][j]);
+                System.out.printf("%9.4f ", get(i, j));
             System.out.println();
         }
     }
@@ -215,5 +403,177 @@ final public class Matrix {
         System.out.println();
 
         A.times(x).show();
+        System.out.println();
+
+        Random r = new Random();
+        for (int i = 0; i < 10; i++)
+            testTimes(1 + r.nextInt(150), 1 + r.nextInt(300), 1 + r.nextInt(150));
+        testTimes(MatrixKernels.MC + 3, MatrixKernels.KC + 5, 67);
+        testTimes(5, 300, MatrixKernels.NC + 9);
+        for (int i = 0; i < 10; i++) {
+            testViews();
+            testVectorProducts();
+            testOutputs();
+        }
+        testParallel();
+    }
+
+    // plain triple loop, the reference for the tests
+    private static Matrix naiveTimes(Matrix A, Matrix B) {
+        Matrix C = new Matrix(A.M, B.N);
+        for (int i = 0; i < A.M; i++)
+            for (int j = 0; j < B.N; j++) {
+                double s = 0.0;
+                for (int k = 0; k < A.N; k++)
+                    s += A.get(i, k) * B.get(k, j);
+                C.data[i * B.N + j] = s;
+            }
+        return C;
+    }
+
+    // are A and B equal up to the rounding of sums of n products of elements in [0, 1]?
+    private static boolean close(Matrix A, Matrix B, int n) {
+        if (A.M != B.M || A.N != B.N) return false;
+        for (int i = 0; i < A.M; i++)
+            for (int j = 0; j < A.N; j++)
+                if (!(Math.abs(A.get(i, j) - B.get(i, j)) <= 1e-12 * (1 + n))) return false;
+        return true;
+    }
+
+    // test function for times(): the blocked product against the triple loop, for sizes on both
+    // sides of SMALL_FLOPS and of the MC, KC and NC block edges
+    private static void testTimes(int M, int K, int N) {
+        Matrix A = Matrix.random(M, K), B = Matrix.random(K, N);
+        System.out.println(close(A.times(B), naiveTimes(A, B), K));
+    }
+
+    // test function for transposeView() and subMatrix(): views read the elements of the matrix they
+    // come from, and work as operands of every operation like contiguous copies of themselves
+    private static void testViews() {
+        Random r = new Random();
+        int M = 1 + r.nextInt(200), N = 1 + r.nextInt(200);
+        Matrix A = Matrix.random(M, N);
+        int i0 = r.nextInt(M), i1 = i0 + 1 + r.nextInt(M - i0), j0 = r.nextInt(N), j1 = j0 + 1 + r.nextInt(N - j0);
+        Matrix V = A.subMatrix(i0, i1, j0, j1), T = V.transposeView(), TV = A.transposeView().subMatrix(j0, j1, i0, i1);
+        boolean ok = V.rows() == i1 - i0 && V.columns() == j1 - j0 && T.rows() == V.columns() && T.columns() == V.rows();
+        for (int i = i0; i < i1; i++)
+            for (int j = j0; j < j1; j++)
+                ok &= V.get(i - i0, j - j0) == A.get(i, j) && T.get(j - j0, i - i0) == A.get(i, j) && TV.get(j - j0, i - i0) == A.get(i, j);
+
+        Matrix Vc = new Matrix(V), Tc = new Matrix(T);
+        ok &= T.eq(Tc) && T.eq(V.transpose()) && TV.eq(Tc) && Vc.eq(V);
+        ok &= close(T.times(V), naiveTimes(Tc, Vc), V.rows()) && close(V.times(T), naiveTimes(Vc, Tc), V.columns());
+        ok &= V.plus(V).eq(Vc.plus(Vc)) && T.minus(Tc).eq(new Matrix(T.rows(), T.columns()));
+        System.out.println(ok);
+    }
+
+    // test function for the products with cas.vector: dense and sparse x, A and A^T, set and
+    // accumulate, on row-major, transposed and sub-matrix operands, against loops over get()
+    private static void testVectorProducts() {
+        Random r = new Random();
+        int M = 1 + r.nextInt(100), N = 1 + r.nextInt(100);
+        Matrix B = Matrix.random(M + 2, N + 2);
+        Matrix[] operands = { Matrix.random(M, N), B.subMatrix(1, M + 1, 2, N + 2), Matrix.random(N, M).transposeView() };
+        boolean ok = true;
+        for (Matrix A : operands) {
+            double[] x = new double[N], xt = new double[M], y0 = new double[M];
+            SparseVector sx = new SparseVector(N), sxt = new SparseVector(M);
+            for (int j = 0; j < N; j++)
+                if (r.nextBoolean()) sx.set(j, x[j] = r.nextDouble());
+            for (int i = 0; i < M; i++) {
+                if (r.nextBoolean()) sxt.set(i, xt[i] = r.nextDouble());
+                y0[i] = r.nextDouble();
+            }
+            double alpha = r.nextDouble() - 0.5;
+            DenseVector y1 = new DenseVector(y0), y2 = new DenseVector(y0), y3 = new DenseVector(y0), y4 = new DenseVector(y0);
+            DenseVector t1 = new DenseVector(N), t2 = new DenseVector(N);
+            A.times(new DenseVector(x), y1);
+            A.times(sx, y2);
+            A.timesAdd(alpha, new DenseVector(x), y3);
+            A.timesAdd(alpha, sx, y4);
+            A.transposeTimes(new DenseVector(xt), t1);
+            A.transposeTimes(sxt, t2);
+            for (int i = 0; i < M; i++) {
+                double s = 0.0;
+                for (int j = 0; j < N; j++)
+                    s += A.get(i, j) * x[j];
+                ok &= Math.abs(y1.getDouble(i) - s) <= 1e-12 * (1 + N) && Math.abs(y2.getDouble(i) - s) <= 1e-12 * (1 + N);
+                ok &= Math.abs(y3.getDouble(i) - (y0[i] + alpha * s)) <= 1e-12 * (1 + N) && Math.abs(y4.getDouble(i) - (y0[i] + alpha * s)) <= 1e-12 * (1 + N);
+            }
+            for (int j = 0; j < N; j++) {
+                double s = 0.0;
+                for (int i = 0; i < M; i++)
+                    s += A.get(i, j) * xt[i];
+                ok &= Math.abs(t1.getDouble(j) - s) <= 1e-12 * (1 + M) && Math.abs(t2.getDouble(j) - s) <= 1e-12 * (1 + M);
+            }
+
+            // x and y the same vector: x must be read before y is overwritten
+            Matrix S = A.subMatrix(0, Math.min(M, N), 0, Math.min(M, N));
+            DenseVector z = new DenseVector(Arrays.copyOf(x, S.N)), expected = new DenseVector(S.N);
+            S.times(z, expected);
+            S.times(z, z);
+            for (int i = 0; i < S.N; i++)
+                ok &= z.getDouble(i) == expected.getDouble(i);
+        }
+        System.out.println(ok);
+    }
+
+    // test function for the out and accumulate variants: results written into dirty outputs, into
+    // views of a larger matrix and into an operand itself, and outputs that overlap an operand refused
+    private static void testOutputs() {
+        Random r = new Random();
+        int M = 1 + r.nextInt(100), K = 1 + r.nextInt(100), N = 1 + r.nextInt(100);
+        Matrix A = Matrix.random(M, K), A2 = Matrix.random(M, K), B = Matrix.random(K, N);
+        Matrix big = Matrix.random(M + 1, Math.max(N, K) + 1), top = new Matrix(big.subMatrix(0, 1, 0, big.N));
+        double alpha = r.nextDouble() - 0.5;
+
+        boolean ok = A.plus(A2, Matrix.random(M, K)).eq(A.plus(A2)) && A.minus(A2, big.subMatrix(1, M + 1, 1, K + 1)).eq(A.minus(A2));
+        ok &= A.times(B, Matrix.random(M, N)).eq(A.times(B)) && A.transpose(Matrix.random(K, M)).eq(A.transpose());
+        Matrix out = big.subMatrix(1, M + 1, 0, N);
+        ok &= A.times(B, out) == out && close(out, naiveTimes(A, B), K);
+        ok &= big.subMatrix(0, 1, 0, big.N).eq(top);
+
+        Matrix C = Matrix.random(M, N), C0 = new Matrix(C), AB = naiveTimes(A, B);
+        A.timesAdd(alpha, B, C);
+        for (int i = 0; i < M; i++)
+            for (int j = 0; j < N; j++)
+                ok &= Math.abs(C.get(i, j) - (C0.get(i, j) + alpha * AB.get(i, j))) <= 1e-12 * (1 + K);
+
+        Matrix A0 = new Matrix(A), A20 = new Matrix(A2);
+        ok &= A.plus(A2, A) == A && A.eq(A0.plus(A20));
+        ok &= A0.minus(A2, A2) == A2 && A2.eq(A0.minus(A20));
+
+        int refused = 0;
+        Matrix S = Matrix.random(K, K), S0 = new Matrix(S), out0 = new Matrix(out);
+        try { S.times(S, S); } catch (RuntimeException e) { refused++; }
+        try { A.times(Matrix.random(K + 1, N), out); } catch (RuntimeException e) { refused++; }
+        try { S.timesAdd(1.0, Matrix.random(K, K), S.transposeView()); } catch (RuntimeException e) { refused++; }
+        try { S.transpose(S); } catch (RuntimeException e) { refused++; }
+        try { S.plus(S, S.transposeView()); } catch (RuntimeException e) { refused++; }
+        ok &= S.eq(S0) && out.eq(out0);
+        System.out.println(ok && refused == 5);
+    }
+
+    // test function for the ForkJoinPool paths: with a threshold of 1 every operation is split over
+    // the pool, and must agree with the triple loop and with elementwise loops
+    private static void testParallel() {
+        Random r = new Random();
+        int M = 2 * MatrixKernels.MC + r.nextInt(200), K = 1 + r.nextInt(300), N = 1 + r.nextInt(150);
+        Matrix A = Matrix.random(M, K), B = Matrix.random(K, N), A2 = Matrix.random(M, K);
+        setPool(new ForkJoinPool(4));
+        setParallelThreshold(1);
+        try {
+            boolean ok = close(A.times(B), naiveTimes(A, B), K);
+            Matrix sum = A.plus(A2), difference = A.minus(A2), T = A.transpose();
+            for (int i = 0; i < M; i++)
+                for (int j = 0; j < K; j++)
+                    ok &= sum.get(i, j) == A.get(i, j) + A2.get(i, j) && difference.get(i, j) == A.get(i, j) - A2.get(i, j)
+                          && T.get(j, i) == A.get(i, j);
+            System.out.println(ok);
+        }
+        finally {
+            setPool(null);
+            setParallelThreshold(1L << 20);
+        }
     }
 }
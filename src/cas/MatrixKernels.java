@@ -0,0 +1,267 @@
+package cas;
+
+/*************************************************************************
+ *  Sequential kernels behind Matrix.times(), plus(), minus() and
+ *  transpose(), and the matrix-vector products (gemv). Each one works on a range of rows of the output, so
+ *  MatrixTask can split the output over a ForkJoinPool. Operands are
+ *  read through their offset and strides, so views (transposed or
+ *  sub-matrices) are handled without copying them first.
+ *
+ *  Multiply is cache-blocked.
+ *
+ *  C += A * B is computed in the usual blocked order: B is packed into
+ *  contiguous KC-by-NC panels, a MC-by-KC block of A is packed next to
+ *  it, and a 4-by-4 register-blocked micro-kernel streams through both.
+ *  Every load in the inner loop is sequential, so large products run at
+ *  close to memory bandwidth instead of missing cache on every B(k, j).
+ *  Packing also turns any stride of A or B into unit stride.
+ *
+ *  Small products (below SMALL_FLOPS) skip the packing and use the
+ *  plain i-k-j loop, which is sequential in B and C when their rows are.
+ *
+ *************************************************************************/
+
+final class MatrixKernels {
+    static final int MR = 4;                 // rows of the micro-kernel
+    static final int NR = 4;                 // columns of the micro-kernel
+    static final int KC = 256;               // depth of a packed panel
+    static final int MC = 64;                // rows of a packed block of A (MC*KC doubles ~ L2)
+    static final int NC = 1024;              // columns of a packed panel of B (KC*NC doubles ~ L3)
+    static final long SMALL_FLOPS = 1L << 18;
+    static final int TILE = 32;              // side of a transpose tile
+
+    // packing buffers of every thread, reused so that steady-state multiplies allocate nothing:
+    // packed B panel, packed A block, edge tile
+    private static final ThreadLocal<double[][]> BUFFERS = new ThreadLocal<double[][]>() {
+        @Override
+        protected double[][] initialValue() {
+            return new double[][] { new double[KC * roundUp(NC, NR)], new double[roundUp(MC, MR) * KC], new double[MR * NR] };
+        }
+    };
+
+    private MatrixKernels() { }
+
+    // C(i, j) += alpha * sum_p A(i, p) * B(p, j) for rows from..to-1 of C
+    static void gemm(double alpha, Matrix A, Matrix B, Matrix C, int from, int to) {
+        int K = A.columns(), N = B.columns();
+        if ((long) (to - from) * K * N < SMALL_FLOPS) {
+            ikj(alpha, A, B, C, from, to);
+            return;
+        }
+        double[][] buffers = BUFFERS.get();
+        double[] bp = buffers[0], ap = buffers[1], tile = buffers[2];
+        for (int jc = 0; jc < N; jc += NC) {
+            int nc = Math.min(NC, N - jc);
+            for (int pc = 0; pc < K; pc += KC) {
+                int kc = Math.min(KC, K - pc);
+                packB(B, pc, kc, jc, nc, bp);
+                for (int ic = from; ic < to; ic += MC) {
+                    int mc = Math.min(MC, to - ic);
+                    packA(A, ic, mc, pc, kc, ap);
+                    for (int jr = 0; jr < nc; jr += NR)
+                        for (int ir = 0; ir < mc; ir += MR)
+                            kernel(alpha, kc, ap, ir * kc, bp, jr * kc, C, ic + ir, jc + jr,
+                                   Math.min(MR, mc - ir), Math.min(NR, nc - jr), tile);
+                }
+            }
+        }
+    }
+
+    // y += alpha A x. row-major A takes a dot product per row, column-major A (e.g. a
+    // transposed view) adds a multiple of every column, so A is always read sequentially
+    static void gemv(double alpha, Matrix A, double[] x, double[] y) {
+        int M = A.rows(), N = A.columns();
+        double[] a = A.data;
+        if (A.colStride == 1 || A.rowStride != 1) {
+            for (int i = 0; i < M; i++) {
+                int ai = A.offset + i * A.rowStride;
+                double s = 0.0;
+                if (A.colStride == 1)
+                    for (int j = 0; j < N; j++) s += a[ai + j] * x[j];
+                else
+                    for (int j = 0; j < N; j++) s += a[ai + j * A.colStride] * x[j];
+                y[i] += alpha * s;
+            }
+        }
+        else {
+            for (int j = 0; j < N; j++) {
+                double xj = alpha * x[j];
+                if (xj == 0.0) continue;
+                int aj = A.offset + j * A.colStride;
+                for (int i = 0; i < M; i++) y[i] += a[aj + i] * xj;
+            }
+        }
+    }
+
+    // y += alpha A x for a sparse x given by its n stored elements (idx[k], val[k]);
+    // columns of A without a stored element of x are never read
+    static void gemv(double alpha, Matrix A, int[] idx, double[] val, int n, double[] y) {
+        int M = A.rows();
+        double[] a = A.data;
+        if (A.rowStride == 1) {
+            for (int k = 0; k < n; k++) {
+                double xj = alpha * val[k];
+                if (xj == 0.0) continue;
+                int aj = A.offset + idx[k] * A.colStride;
+                for (int i = 0; i < M; i++) y[i] += a[aj + i] * xj;
+            }
+        }
+        else {
+            for (int i = 0; i < M; i++) {
+                int ai = A.offset + i * A.rowStride;
+                double s = 0.0;
+                for (int k = 0; k < n; k++) s += a[ai + idx[k] * A.colStride] * val[k];
+                y[i] += alpha * s;
+            }
+        }
+    }
+
+    // plain i-k-j loop
+    static void ikj(double alpha, Matrix A, Matrix B, Matrix C, int from, int to) {
+        int K = A.columns(), N = B.columns();
+        double[] a = A.data, b = B.data, c = C.data;
+        for (int i = from; i < to; i++) {
+            int ai = A.offset + i * A.rowStride;
+            int ci = C.offset + i * C.rowStride;
+            for (int p = 0; p < K; p++) {
+                double aip = alpha * a[ai + p * A.colStride];
+                if (aip == 0.0) continue;
+                int bp = B.offset + p * B.rowStride;
+                for (int j = 0; j < N; j++)
+                    c[ci + j * C.colStride] += aip * b[bp + j * B.colStride];
+            }
+        }
+    }
+
+    // C(i, j) = A(i, j) + sign * B(i, j) for rows from..to-1
+    static void add(Matrix A, Matrix B, double sign, Matrix C, int from, int to) {
+        int N = C.columns();
+        double[] a = A.data, b = B.data, c = C.data;
+        for (int i = from; i < to; i++) {
+            int ai = A.offset + i * A.rowStride;
+            int bi = B.offset + i * B.rowStride;
+            int ci = C.offset + i * C.rowStride;
+            if (A.colStride == 1 && B.colStride == 1 && C.colStride == 1)
+                for (int j = 0; j < N; j++)
+                    c[ci + j] = a[ai + j] + sign * b[bi + j];
+            else
+                for (int j = 0; j < N; j++)
+                    c[ci + j * C.colStride] = a[ai + j * A.colStride] + sign * b[bi + j * B.colStride];
+        }
+    }
+
+    // T(j, i) = A(i, j) for rows from..to-1 of T (columns of A);
+    // done in TILE-by-TILE tiles so both sides stay in cache
+    static void transpose(Matrix A, Matrix T, int from, int to) {
+        int M = A.rows();
+        double[] a = A.data, t = T.data;
+        for (int i0 = 0; i0 < M; i0 += TILE) {
+            int i1 = Math.min(M, i0 + TILE);
+            for (int j0 = from; j0 < to; j0 += TILE) {
+                int j1 = Math.min(to, j0 + TILE);
+                for (int i = i0; i < i1; i++) {
+                    int ai = A.offset + i * A.rowStride;
+                    int ti = T.offset + i * T.colStride;
+                    for (int j = j0; j < j1; j++)
+                        t[ti + j * T.rowStride] = a[ai + j * A.colStride];
+                }
+            }
+        }
+    }
+
+    private static int roundUp(int n, int r) {
+        return (n + r - 1) / r * r;
+    }
+
+    // B(pc..pc+kc, jc..jc+nc) into NR-wide column panels, element (p, j) of panel jr at (jr*kc + p*NR + j)
+    private static void packB(Matrix B, int pc, int kc, int jc, int nc, double[] bp) {
+        double[] b = B.data;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            int base = jr * kc;
+            if (B.colStride == 1) {
+                for (int p = 0; p < kc; p++) {
+                    int bi = B.offset + (pc + p) * B.rowStride + jc + jr;
+                    int o = base + p * NR;
+                    int j = 0;
+                    for (; j < nr; j++) bp[o + j] = b[bi + j];
+                    for (; j < NR; j++) bp[o + j] = 0.0;
+                }
+            }
+            else {
+                // e.g. a transposed view: walk down the columns of B, which are its contiguous direction
+                for (int j = 0; j < NR; j++) {
+                    if (j < nr) {
+                        int bi = B.offset + pc * B.rowStride + (jc + jr + j) * B.colStride;
+                        for (int p = 0; p < kc; p++) bp[base + p * NR + j] = b[bi + p * B.rowStride];
+                    }
+                    else {
+                        for (int p = 0; p < kc; p++) bp[base + p * NR + j] = 0.0;
+                    }
+                }
+            }
+        }
+    }
+
+    // A(ic..ic+mc, pc..pc+kc) into MR-high row panels, element (i, p) of panel ir at (ir*kc + p*MR + i)
+    private static void packA(Matrix A, int ic, int mc, int pc, int kc, double[] ap) {
+        double[] a = A.data;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            int base = ir * kc;
+            for (int i = 0; i < MR; i++) {
+                if (i < mr) {
+                    int ai = A.offset + (ic + ir + i) * A.rowStride + pc * A.colStride;
+                    for (int p = 0; p < kc; p++) ap[base + p * MR + i] = a[ai + p * A.colStride];
+                }
+                else {
+                    for (int p = 0; p < kc; p++) ap[base + p * MR + i] = 0.0;
+                }
+            }
+        }
+    }
+
+    // C(i..i+mr, j..j+nr) += alpha * packed A panel * packed B panel, 16 accumulators kept in registers
+    private static void kernel(double alpha, int kc, double[] ap, int ai, double[] bp, int bi,
+                               Matrix C, int i, int j, int mr, int nr, double[] t) {
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+        for (int p = 0; p < kc; p++, ai += MR, bi += NR) {
+            double a0 = ap[ai], a1 = ap[ai + 1], a2 = ap[ai + 2], a3 = ap[ai + 3];
+            double b0 = bp[bi], b1 = bp[bi + 1], b2 = bp[bi + 2], b3 = bp[bi + 3];
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+        }
+        if (alpha != 1.0) {
+            c00 *= alpha; c01 *= alpha; c02 *= alpha; c03 *= alpha;
+            c10 *= alpha; c11 *= alpha; c12 *= alpha; c13 *= alpha;
+            c20 *= alpha; c21 *= alpha; c22 *= alpha; c23 *= alpha;
+            c30 *= alpha; c31 *= alpha; c32 *= alpha; c33 *= alpha;
+        }
+        double[] c = C.data;
+        int rs = C.rowStride, cs = C.colStride;
+        int o = C.offset + i * rs + j * cs;
+        if (mr == MR && nr == NR && cs == 1) {
+            c[o] += c00; c[o + 1] += c01; c[o + 2] += c02; c[o + 3] += c03;
+            o += rs;
+            c[o] += c10; c[o + 1] += c11; c[o + 2] += c12; c[o + 3] += c13;
+            o += rs;
+            c[o] += c20; c[o + 1] += c21; c[o + 2] += c22; c[o + 3] += c23;
+            o += rs;
+            c[o] += c30; c[o + 1] += c31; c[o + 2] += c32; c[o + 3] += c33;
+            return;
+        }
+        // edge of the matrix or strided C: only the valid part of the tile is written
+        t[0] = c00;  t[1] = c01;  t[2] = c02;  t[3] = c03;
+        t[4] = c10;  t[5] = c11;  t[6] = c12;  t[7] = c13;
+        t[8] = c20;  t[9] = c21;  t[10] = c22; t[11] = c23;
+        t[12] = c30; t[13] = c31; t[14] = c32; t[15] = c33;
+        for (int x = 0; x < mr; x++)
+            for (int y = 0; y < nr; y++)
+                c[o + x * rs + y * cs] += t[x * NR + y];
+    }
+}
@@ -0,0 +1,87 @@
+package cas;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*************************************************************************
+ *  Runs one of the MatrixKernels over the rows of the output matrix,
+ *  splitting the rows in halves on Matrix.pool() until a block has about
+ *  Matrix.parallelThreshold() of work. Operations with less work than
+ *  that run sequentially on the calling thread.
+ *
+ *************************************************************************/
+
+final class MatrixTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    static final int TIMES = 0;          // C += alpha * A * B, in place
+    static final int PLUS = 1;
+    static final int MINUS = 2;
+    static final int TRANSPOSE = 3;
+    static final int LOWER_TIMES = 4;    // C += alpha * A * B on and below the diagonal of a square C
+
+    private static final int MIN_ROWS_PER_TASK = MatrixKernels.MC;
+
+    private final int op;
+    private final double alpha;
+    private final Matrix A, B, C;
+    private final int from, to;      // rows of C
+    private final int grain;
+
+    private MatrixTask(int op, double alpha, Matrix A, Matrix B, Matrix C, int from, int to, int grain) {
+        this.op = op;
+        this.alpha = alpha;
+        this.A = A;
+        this.B = B;
+        this.C = C;
+        this.from = from;
+        this.to = to;
+        this.grain = grain;
+    }
+
+    // compute all rows of C; work is the number of multiply-adds (TIMES) or elements (otherwise)
+    static void run(int op, Matrix A, Matrix B, Matrix C, long work) {
+        run(op, 1.0, A, B, C, work);
+    }
+
+    static void run(int op, double alpha, Matrix A, Matrix B, Matrix C, long work) {
+        int rows = C.rows();
+        long threshold = Matrix.parallelThreshold();
+        ForkJoinPool pool = work < threshold || rows < 2 * MIN_ROWS_PER_TASK ? null : Matrix.pool();
+        if (pool == null || pool.getParallelism() < 2) {
+            new MatrixTask(op, alpha, A, B, C, 0, rows, rows).kernel();
+            return;
+        }
+        int grain = (int) Math.max(MIN_ROWS_PER_TASK, rows * (double) threshold / work);
+        pool.invoke(new MatrixTask(op, alpha, A, B, C, 0, rows, grain));
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= grain) {
+            kernel();
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        invokeAll(new MatrixTask(op, alpha, A, B, C, from, mid, grain),
+                  new MatrixTask(op, alpha, A, B, C, mid, to, grain));
+    }
+
+    private void kernel() {
+        switch (op) {
+            case TIMES:       MatrixKernels.gemm(alpha, A, B, C, from, to); break;
+            case LOWER_TIMES:
+                // rows i0..i1-1 only need columns 0..i1-1; the few above the diagonal are don't-care
+                for (int i0 = from; i0 < to; i0 += MatrixKernels.MC) {
+                    int i1 = Math.min(to, i0 + MatrixKernels.MC);
+                    MatrixKernels.gemm(alpha, A.subMatrix(i0, i1, 0, A.columns()), B.subMatrix(0, B.rows(), 0, i1),
+                                       C.subMatrix(i0, i1, 0, i1), 0, i1 - i0);
+                }
+                break;
+            case PLUS:        MatrixKernels.add(A, B, 1.0, C, from, to); break;
+            case MINUS:       MatrixKernels.add(A, B, -1.0, C, from, to); break;
+            case TRANSPOSE:   MatrixKernels.transpose(A, C, from, to); break;
+            default:          throw new RuntimeException("Unknown matrix operation.");
+        }
+    }
+}
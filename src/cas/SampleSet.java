@@ -5,21 +5,34 @@ import java.util.*;
 // TODO  change the SampleIterator<E> as an inner class of SampleSet<E>
 /**
  * Container to hold training / test examples 
+ * subclasses that do not keep their samples in memory (e.g. cas.vector.MappedSampleSet) use the
+ * protected constructor and override get(), size() and getSamples().
  * @author kex
  *
  * @param <E>
  */
-class SampleSet<E> implements Iterable<E>{
+public class SampleSet<E> implements Iterable<E>{
 	private ArrayList<E> samples;
 
-	SampleSet(ArrayList<E> samples){
+	public SampleSet(ArrayList<E> samples){
 		this.samples = samples;
 	}
 	
+	protected SampleSet(){
+		this.samples = null;
+	}
+	
 	public ArrayList<E> getSamples(){
 		return this.samples;
 	}
 	
+	/**
+	 * @return the idx-th sample
+	 */
+	public E get(int idx){
+		return this.samples.get(idx);
+	}
+	
 	public int size(){
 		return this.samples.size();
 	}
@@ -48,7 +61,7 @@ class SampleIterator<E> implements Iterator<E>{
 
 	@Override
 	public E next() {
-		return hasNext() ? this.samples.getSamples().get(csize++) : null;
+		return hasNext() ? this.samples.get(csize++) : null;
 	}
 
 	@Override
@@ -1,5 +1,9 @@
+package cas.vector;
+
 import java.util.Iterator;
 
+import cas.SampleSet;
+
 /* abstract classes */
 abstract class Trainer<E>{
 	protected SampleSet<E> trainSamples;
@@ -29,7 +33,7 @@ abstract class Sample{
 	// Different kinds of samples require different text formats and storage.
 	abstract Sample createSample(String textLine);
 	abstract int getLabel();
-	abstract Vector getFeatures();
+	abstract Vector<?> getFeatures();
 }
 
 /* interfaces */
@@ -37,63 +41,7 @@ interface Convergable{
 	//boolean isConverged();
 }
 
-interface Visualizable{
-	void print();
-}
-
-interface Vector<E> extends Iterable<E>, Visualizable{
-	public int size();
-	
-	/*
-	public void addNumber(E num);
-	public void subNumber(E num);
-	public void mulNumber(E num);
-	public void divNumber(E num);
-	
-	public void addVector(Vector<E> vec);
-	public void subVector(Vector<E> vec);
-	public void mulVector(Vector<E> vec);
-	public void divVector(Vector<E> vec);
-	*/
-	
-}
-
 /*  assistant classes */
-class Pair<E extends Comparable<E>, T> implements Comparable<Pair<E, T>>{
-	private E key;
-	private T value;
-	
-	Pair(){
-		
-	}
-	
-	Pair(E key, T value){
-		this.key = key;
-		this.value = value;
-	}
-	
-	public void setKey(E key){
-		this.key = key;
-	}
-	
-	public void setValue(T value){
-		this.value = value;
-	}
-	
-	public E getKey(){
-		return key;
-	}
-	
-	public T getValue(){
-		return value;
-	}
-
-	@Override
-	public int compareTo(Pair<E, T> pair) {
-		return key.compareTo(pair.key);
-	}
-}
-
 class Stats{
 	private Integer nTruePositive, nFalsePositive, nFalseNegative, nTrueNegative; // required
 	private Double recall, precision, f1; // derived from tp, fp, fn, tn 
@@ -0,0 +1,126 @@
+package cas.vector;
+
+import java.util.concurrent.*;
+
+/**
+ * One-against-many kernels behind the batch methods of VectorOperator.
+ * When the single vector is dense, dense rows are processed in column blocks: each block of
+ * the single vector stays in L1 while it is applied to every row. Large batches are split by
+ * rows over a ForkJoinPool.
+ *
+ * @author kex, linyang
+ *
+ */
+final class BatchKernels{
+	static final int SCALAR_PRODUCT = 0;
+	static final int SQUARE_ERROR = 1;
+	static final int ABS_ERROR = 2;
+
+	private static final int BLOCK_SIZE = 2048;           // doubles per column block, 16KB
+	private static final int PARALLEL_THRESHOLD = 1 << 18; // stored elements below which a batch runs sequentially
+	private static final int MIN_ROWS_PER_TASK = 16;
+
+	private static ForkJoinPool pool;
+
+	private BatchKernels(){
+
+	}
+
+	static synchronized ForkJoinPool pool(){
+		if(pool == null)
+			pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/**
+	 * out[r] = metric(vec, rows[r]) for r < n. every row must have the same size as vec.
+	 */
+	static void score(Vector<?> vec, Vector<?>[] rows, int n, double[] out, int metric){
+		long work = 0;
+		for(int r = 0; r < n; r++)
+			work += rows[r].numOfElements();
+
+		if(work < PARALLEL_THRESHOLD || n < 2 * MIN_ROWS_PER_TASK || Runtime.getRuntime().availableProcessors() < 2)
+			score(vec, rows, 0, n, out, metric);
+		else
+			pool().invoke(new ScoreTask(vec, rows, 0, n, out, metric, (int)Math.max(MIN_ROWS_PER_TASK, n * (long)PARALLEL_THRESHOLD / work)));
+	}
+
+	// sequential kernel for rows [from, to)
+	static void score(Vector<?> vec, Vector<?>[] rows, int from, int to, double[] out, int metric){
+		if(!(vec instanceof DenseVector)){
+			for(int r = from; r < to; r++)
+				out[r] = single(vec, rows[r], metric);
+			return;
+		}
+
+		double[] q = ((DenseVector) vec).array();
+		int size = vec.size();
+		for(int r = from; r < to; r++)
+			out[r] = rows[r] instanceof DenseVector ? 0.0 : single(vec, rows[r], metric);
+
+		for(int c0 = 0; c0 < size; c0 += BLOCK_SIZE){
+			int c1 = Math.min(size, c0 + BLOCK_SIZE);
+			for(int r = from; r < to; r++){
+				if(!(rows[r] instanceof DenseVector)) continue;
+				double[] row = ((DenseVector) rows[r]).array();
+				switch(metric){
+				case SCALAR_PRODUCT:
+					out[r] += DenseKernels.dot(q, row, c0, c1);
+					break;
+				case SQUARE_ERROR:
+					out[r] += DenseKernels.squareDistance(q, row, c0, c1);
+					break;
+				default:
+					out[r] += DenseKernels.absDistance(q, row, c0, c1);
+				}
+			}
+		}
+	}
+
+	private static double single(Vector<?> vec, Vector<?> row, int metric){
+		switch(metric){
+		case SCALAR_PRODUCT:
+			return VectorOperator.dot(vec, row);
+		case SQUARE_ERROR:
+			return VectorOperator.squareDistance(vec, row);
+		default:
+			return VectorOperator.absDistance(vec, row);
+		}
+	}
+
+	/**
+	 * splits the rows in halves until a range holds at most 'grain' rows
+	 */
+	private static class ScoreTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		private final Vector<?> vec;
+		private final Vector<?>[] rows;
+		private final int from, to;
+		private final double[] out;
+		private final int metric;
+		private final int grain;
+
+		ScoreTask(Vector<?> vec, Vector<?>[] rows, int from, int to, double[] out, int metric, int grain){
+			this.vec = vec;
+			this.rows = rows;
+			this.from = from;
+			this.to = to;
+			this.out = out;
+			this.metric = metric;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= grain){
+				score(vec, rows, from, to, out, metric);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new ScoreTask(vec, rows, from, mid, out, metric, grain),
+					new ScoreTask(vec, rows, mid, to, out, metric, grain));
+		}
+	}
+}
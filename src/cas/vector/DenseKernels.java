@@ -0,0 +1,190 @@
+package cas.vector;
+
+import java.util.Random;
+
+/**
+ * Array kernels behind the dense paths of DenseVector and VectorOperator.
+ * Loops are unrolled by 4 with independent accumulators: the element-wise loops are
+ * vectorized by the JIT (SSE/AVX), and the reductions no longer serialize on a single
+ * floating point add chain. Lengths that are not a multiple of 4 finish in a scalar tail.
+ *
+ * @author kex, linyang
+ *
+ */
+final class DenseKernels{
+	private DenseKernels(){
+
+	}
+
+	// sum of a[i] * b[i], i < n
+	static double dot(double[] a, double[] b, int n){
+		return dot(a, b, 0, n);
+	}
+
+	// sum of a[i] * b[i], from <= i < to
+	static double dot(double[] a, double[] b, int from, int to){
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = from;
+		for(int bound = to - ((to - from) & 3); i < bound; i += 4){
+			s0 += a[i] * b[i];
+			s1 += a[i + 1] * b[i + 1];
+			s2 += a[i + 2] * b[i + 2];
+			s3 += a[i + 3] * b[i + 3];
+		}
+		for(; i < to; i++)
+			s0 += a[i] * b[i];
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	// sum of (a[i] - b[i])^2, i < n
+	static double squareDistance(double[] a, double[] b, int n){
+		return squareDistance(a, b, 0, n);
+	}
+
+	// sum of (a[i] - b[i])^2, from <= i < to
+	static double squareDistance(double[] a, double[] b, int from, int to){
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = from;
+		for(int bound = to - ((to - from) & 3); i < bound; i += 4){
+			double d0 = a[i] - b[i];
+			double d1 = a[i + 1] - b[i + 1];
+			double d2 = a[i + 2] - b[i + 2];
+			double d3 = a[i + 3] - b[i + 3];
+			s0 += d0 * d0;
+			s1 += d1 * d1;
+			s2 += d2 * d2;
+			s3 += d3 * d3;
+		}
+		for(; i < to; i++){
+			double d = a[i] - b[i];
+			s0 += d * d;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	// sum of |a[i] - b[i]|, i < n
+	static double absDistance(double[] a, double[] b, int n){
+		return absDistance(a, b, 0, n);
+	}
+
+	// sum of |a[i] - b[i]|, from <= i < to
+	static double absDistance(double[] a, double[] b, int from, int to){
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = from;
+		for(int bound = to - ((to - from) & 3); i < bound; i += 4){
+			s0 += Math.abs(a[i] - b[i]);
+			s1 += Math.abs(a[i + 1] - b[i + 1]);
+			s2 += Math.abs(a[i + 2] - b[i + 2]);
+			s3 += Math.abs(a[i + 3] - b[i + 3]);
+		}
+		for(; i < to; i++)
+			s0 += Math.abs(a[i] - b[i]);
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	// sum of |a[i]|, i < n
+	static double absSum(double[] a, int n){
+		double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+		int i = 0;
+		for(int bound = n & ~3; i < bound; i += 4){
+			s0 += Math.abs(a[i]);
+			s1 += Math.abs(a[i + 1]);
+			s2 += Math.abs(a[i + 2]);
+			s3 += Math.abs(a[i + 3]);
+		}
+		for(; i < n; i++)
+			s0 += Math.abs(a[i]);
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	// scalar product, square distance, abs distance and both square norms of a and b, one pass
+	static void metrics(double[] a, double[] b, int n, VectorMetrics out){
+		double dot = 0.0, se = 0.0, ae = 0.0, sa = 0.0, sb = 0.0;
+		for(int i = 0; i < n; i++){
+			double x = a[i], y = b[i], d = x - y;
+			dot += x * y;
+			se += d * d;
+			ae += Math.abs(d);
+			sa += x * x;
+			sb += y * y;
+		}
+		out.set(dot, se, ae, sa, sb);
+	}
+
+	// y[i] += alpha * x[i], i < n
+	static void axpy(double alpha, double[] x, double[] y, int n){
+		int i = 0;
+		for(int bound = n & ~3; i < bound; i += 4){
+			y[i] += alpha * x[i];
+			y[i + 1] += alpha * x[i + 1];
+			y[i + 2] += alpha * x[i + 2];
+			y[i + 3] += alpha * x[i + 3];
+		}
+		for(; i < n; i++)
+			y[i] += alpha * x[i];
+	}
+
+	// y[i] = alpha * x[i], i < n. x and y may be the same array
+	static void scale(double alpha, double[] x, double[] y, int n){
+		int i = 0;
+		for(int bound = n & ~3; i < bound; i += 4){
+			y[i] = alpha * x[i];
+			y[i + 1] = alpha * x[i + 1];
+			y[i + 2] = alpha * x[i + 2];
+			y[i + 3] = alpha * x[i + 3];
+		}
+		for(; i < n; i++)
+			y[i] = alpha * x[i];
+	}
+
+	// |a - b| small relative to the size of the terms that were summed
+	private static boolean close(double a, double b, double scale){
+		return Math.abs(a - b) <= 1e-12 * (1.0 + scale);
+	}
+
+	// test function: every kernel against a plain loop, for lengths around the unrolling and random sub-ranges
+	private static void testKernels(){
+		Random r = new Random();
+		boolean ok = true;
+		for(int n = 0; n < 40; n++){
+			double[] a = new double[n], b = new double[n];
+			for(int i = 0; i < n; i++){
+				a[i] = r.nextDouble() - 0.5;
+				b[i] = r.nextDouble() - 0.5;
+			}
+			int from = n == 0 ? 0 : r.nextInt(n), to = from + (n == from ? 0 : r.nextInt(n - from + 1));
+			double dot = 0.0, se = 0.0, ae = 0.0, as = 0.0, rdot = 0.0, rse = 0.0, rae = 0.0;
+			for(int i = 0; i < n; i++){
+				double d = a[i] - b[i];
+				dot += a[i] * b[i];
+				se += d * d;
+				ae += Math.abs(d);
+				as += Math.abs(a[i]);
+				if(i >= from && i < to){
+					rdot += a[i] * b[i];
+					rse += d * d;
+					rae += Math.abs(d);
+				}
+			}
+			ok &= close(dot(a, b, n), dot, n) && close(squareDistance(a, b, n), se, n) && close(absDistance(a, b, n), ae, n);
+			ok &= close(absSum(a, n), as, n);
+			ok &= close(dot(a, b, from, to), rdot, n) && close(squareDistance(a, b, from, to), rse, n) && close(absDistance(a, b, from, to), rae, n);
+			VectorMetrics m = new VectorMetrics();
+			metrics(a, b, n, m);
+			ok &= close(m.getScalarProduct(), dot, n) && close(m.getSquareError(), se, n) && close(m.getAbsError(), ae, n);
+
+			double alpha = r.nextDouble();
+			double[] y = b.clone(), z = new double[n];
+			axpy(alpha, a, y, n);
+			scale(alpha, a, z, n);
+			for(int i = 0; i < n; i++)
+				ok &= y[i] == b[i] + alpha * a[i] && z[i] == alpha * a[i];
+		}
+		System.out.println(ok);
+	}
+
+	public static void main(String[] args){
+		for(int i = 0; i < 10; i++)
+			testKernels();
+	}
+}
@@ -4,14 +4,19 @@ import java.util.*;
 
 /**
  * Dense Vector class represents common vectors 
+ * elements are kept in a growable primitive double[] so that the arithmetic paths never box.
  * @author kex, linyang
  *
  */
-class DenseVector implements Vector<Double>{
-	private ArrayList<Double> elements;
+public class DenseVector implements Vector<Double>{
+	private static final int DEFAULT_CAPACITY = 16;
 	
-	DenseVector(){
-		this.elements = new ArrayList<Double>();
+	private double[] elements;  // backing storage, only the first 'size' slots are valid
+	private int size;
+	
+	public DenseVector(){
+		this.elements = new double[DEFAULT_CAPACITY];
+		this.size = 0;
 	}
 	
 	// default size with default initialization to zeros 
@@ -19,22 +24,67 @@ class DenseVector implements Vector<Double>{
 	 * construct a DenseVector with default size and with default initialization to zeros
 	 * @param size
 	 */
-	DenseVector(int size){
-		this.elements = new ArrayList<Double>();
-		for(int i = 0; i < size; i++)
-			elements.add(0.0);
+	public DenseVector(int size){
+		this.elements = new double[size];
+		this.size = size;
+	}
+	
+	/**
+	 * construct a DenseVector holding a copy of values
+	 * @param values
+	 */
+	public DenseVector(double[] values){
+		this.elements = Arrays.copyOf(values, values.length);
+		this.size = values.length;
+	}
+	
+	// grow the backing array so that it holds at least minCapacity elements
+	private void ensureCapacity(int minCapacity){
+		if(minCapacity <= this.elements.length) return;
+		int newCapacity = Math.max(this.elements.length + (this.elements.length >> 1), minCapacity);
+		this.elements = Arrays.copyOf(this.elements, newCapacity);
+	}
+	
+	// backing array, shared with the kernels in DenseKernels. only the first size() slots are valid
+	double[] array(){
+		return this.elements;
+	}
+	
+	public void add(double e){
+		ensureCapacity(this.size + 1);
+		this.elements[this.size++] = e;
 	}
 	
 	public void add(Double e){
-		this.elements.add(e);
+		add(e.doubleValue());
 	}
 	
 	public Double get(int i){
-		if(this.elements == null || i < 0 || i >= this.elements.size()){
+		if(i < 0 || i >= this.size){
 			System.out.println("Index out of bound!");
 			return null;
 		}
-		return this.elements.get(i);
+		return this.elements[i];
+	}
+	
+	/**
+	 * primitive version of get(). no boxing, throws on a bad index instead of returning null.
+	 * @param i
+	 * @return the value in the i-th dimension
+	 */
+	public double getDouble(int i){
+		if(i < 0 || i >= this.size) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + this.size);
+		return this.elements[i];
+	}
+	
+	/**
+	 * primitive version of set(). no boxing, throws on a bad index.
+	 * @param idx
+	 * @param value
+	 */
+	public void setDouble(int idx, double value){
+		if(idx < 0 || idx >= this.size) throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + this.size);
+		this.elements[idx] = value;
 	}
 	/**
 	 * set the idx dimension to the value
@@ -42,8 +92,8 @@ class DenseVector implements Vector<Double>{
 	 * @param value
 	 */
 	public void set(int idx, Double value){
-		if(idx < 0 || idx >= this.elements.size()) return;
-		this.elements.set(idx, value);
+		if(idx < 0 || idx >= this.size) return;
+		this.elements[idx] = value;
 	}
 	
 	// set all elements to values of elements in vec. 
@@ -53,24 +103,19 @@ class DenseVector implements Vector<Double>{
 			return;
 		}
 		
-		for(int i = 0; i < size(); i++){
-			Double newVal = vec.get(i); 
-			this.set(i, newVal);  
-		}
+		System.arraycopy(vec.elements, 0, this.elements, 0, this.size);
 	}
 	/**
 	 * set the value in every dimension to zero
 	 */
 	public void setZeros(){
-		int size = size();
-		for(int i = 0; i < size; i++)
-			this.elements.set(i, 0.0);
+		Arrays.fill(this.elements, 0, this.size, 0.0);
 	}
 	/**
 	 * clear the DenseVector
 	 */
 	public void clear(){
-		this.elements.clear();
+		this.size = 0;
 	}
 	
 	/**
@@ -79,17 +124,12 @@ class DenseVector implements Vector<Double>{
 	 * @return this .* vec
 	 */
 	public Double scalarProduct(DenseVector vec){
-		if(vec == null || vec.size() != this.elements.size()){
+		if(vec == null || vec.size() != this.size){
 			System.out.println("Vector length does not match!");
 			return null;
 		}
 		
-		int size = size();
-		Double product = 0.0;
-		for(int i = 0; i < size; i++)
-			product += this.elements.get(i) * vec.get(i);
-		
-		return product;
+		return DenseKernels.dot(this.elements, vec.elements, this.size);
 	}
 	
 	// norm 2 / Euclidean norm / inner product
@@ -98,15 +138,7 @@ class DenseVector implements Vector<Double>{
 	 * @return
 	 */
 	public Double innerProduct(){
-		if(this.elements == null)
-			return null;
-		if(size() == 0)
-			return 0.0;
-		
-		Double product = 0.0;
-		for(Double e : this.elements)
-			product += e * e;
-		return product;
+		return DenseKernels.dot(this.elements, this.elements, this.size);
 	}
 	
 	// this.elements .+ vec
@@ -115,14 +147,12 @@ class DenseVector implements Vector<Double>{
 	 * @param vec
 	 */
 	public void plusVector(DenseVector vec){
-		if(vec == null || vec.size() != this.elements.size()){
+		if(vec == null || vec.size() != this.size){
 			System.out.println("Vector length does not match!");
 			return;
 		}
 		
-		int size = size();
-		for(int i = 0; i < size; i++)
-			this.elements.set(i, this.elements.get(i) + vec.get(i));
+		DenseKernels.axpy(1.0, vec.elements, this.elements, this.size);
 	}
 	
 	// this.elements .+ number
@@ -131,12 +161,9 @@ class DenseVector implements Vector<Double>{
 	 * @param number
 	 */
 	public void plusNumber(Double number){
-		if(this.elements == null)
-			return;
-		
-		int size = size();
-		for(int i = 0; i < size; i++)
-			this.elements.set(i, this.elements.get(i) + number);
+		double n = number;
+		for(int i = 0; i < this.size; i++)
+			this.elements[i] += n;
 	}
 	
 	// this.elements .- vec
@@ -145,14 +172,12 @@ class DenseVector implements Vector<Double>{
 	 * @param vec
 	 */
 	public void minusVector(DenseVector vec){
-		if(vec == null || vec.size() != this.elements.size()){
+		if(vec == null || vec.size() != this.size){
 			System.out.println("Vector length does not match!");
 			return;
 		}
 			
-		int size = size();
-		for(int i = 0; i < size; i++)
-			this.elements.set(i, this.elements.get(i) - vec.get(i));
+		DenseKernels.axpy(-1.0, vec.elements, this.elements, this.size);
 	}
 		
 	// this.elements .- number
@@ -161,12 +186,9 @@ class DenseVector implements Vector<Double>{
 	 * @param number
 	 */
 	public void minusNumber(Double number){
-		if(this.elements == null)
-			return;
-		
-		int size = size();
-		for(int i = 0; i < size; i++)
-			this.elements.set(i, this.elements.get(i) - number);
+		double n = number;
+		for(int i = 0; i < this.size; i++)
+			this.elements[i] -= n;
 	}
 	
 	// this.elements .* number
@@ -175,12 +197,7 @@ class DenseVector implements Vector<Double>{
 	 * @param number
 	 */
 	public void multiplyNumber(Double number){
-		if(this.elements == null)
-			return;
-			
-		int size = size();
-		for(int i = 0; i < size; i++)
-			this.elements.set(i, this.elements.get(i) * number);
+		DenseKernels.scale(number, this.elements, this.elements, this.size);
 	}
 	
 	// this.elements ./ number
@@ -189,16 +206,14 @@ class DenseVector implements Vector<Double>{
 	 * @param number
 	 */
 	public void divideNumber(Double number){
-		if(this.elements == null)
-			return;
 		if(Math.abs(number) < 0.000001){
 			System.out.println("Divisor cannot be zero!");
 			return;
 		}
 				
-		int size = size();
-		for(int i = 0; i < size; i++)
-			this.elements.set(i, this.elements.get(i) / number);
+		double n = number;
+		for(int i = 0; i < this.size; i++)
+			this.elements[i] /= n;
 	}
 	/**
 	 * print out the DenseVector
@@ -206,7 +221,7 @@ class DenseVector implements Vector<Double>{
 	public void print(){
 		int size = size();
 		for(int i = 0; i < size; i++)
-			System.out.print(this.elements.get(i) + " ");
+			System.out.print(this.elements[i] + " ");
 		System.out.println("");
 	}
 	
@@ -214,7 +229,7 @@ class DenseVector implements Vector<Double>{
 	public void print(int pSize){
 		int len = Math.min(size(), pSize);
 		for(int i = 0; i < len; i++)
-			System.out.print(this.elements.get(i) + " ");
+			System.out.print(this.elements[i] + " ");
 		System.out.println("");
 	}
 
@@ -223,7 +238,38 @@ class DenseVector implements Vector<Double>{
 	 * return the size of the DenseVector
 	 */
 	public int size(){
-		return this.elements.size();
+		return this.size;
+	}
+	
+	@Override
+	/**
+	 * every dimension is stored in a DenseVector
+	 */
+	public int numOfElements(){
+		return this.size;
+	}
+	
+	@Override
+	/**
+	 * cursor over all dimensions, zeros included
+	 */
+	public VectorCursor cursor(){
+		return new DenseVectorCursor();
+	}
+	
+	private class DenseVectorCursor implements VectorCursor{
+		private int idx = -1;
+		
+		@Override
+		public int nextIndex(){
+			if(idx < size) idx++;
+			return idx < size ? idx : -1;
+		}
+		
+		@Override
+		public double value(){
+			return elements[idx];
+		}
 	}
 	
 	@Override
@@ -233,6 +279,49 @@ class DenseVector implements Vector<Double>{
 	public Iterator<Double> iterator() {
 		return new DenseVectorIterator(this);
 	}
+	
+	// test function for the primitive storage: add() past the capacity of every constructor, setDouble(),
+	// clear() and adding again, against a plain array; indices outside [0, size) throw
+	private static void testStorage(){
+		Random r = new Random();
+		int n = r.nextInt(1000);
+		double[] expected = new double[n];
+		DenseVector[] vecs = { new DenseVector(), new DenseVector(0), new DenseVector(new double[]{ 1.0 }) };
+		vecs[2].clear();
+		boolean ok = true;
+		for(DenseVector vec : vecs){
+			for(int i = 0; i < n; i++){
+				expected[i] = r.nextDouble();
+				vec.add(expected[i]);
+			}
+			for(int i = 0; i < n; i += 1 + r.nextInt(10)){
+				expected[i] = -expected[i];
+				vec.setDouble(i, expected[i]);
+			}
+			ok &= vec.size() == n && vec.numOfElements() == n;
+			for(int i = 0; i < n; i++)
+				ok &= vec.getDouble(i) == expected[i] && vec.get(i) == expected[i];
+			
+			int refused = 0;
+			int[] bad = { -1, n, Integer.MIN_VALUE };
+			for(int i : bad){
+				try{ vec.getDouble(i); }catch(IndexOutOfBoundsException e){ refused++; }
+				try{ vec.setDouble(i, 1.0); }catch(IndexOutOfBoundsException e){ refused++; }
+			}
+			ok &= refused == 2 * bad.length;
+			
+			vec.clear();
+			ok &= vec.size() == 0 && vec.cursor().nextIndex() < 0;
+			vec.add(3.0);
+			ok &= vec.size() == 1 && vec.getDouble(0) == 3.0;
+		}
+		System.out.println(ok);
+	}
+	
+	public static void main(String[] args){
+		for(int i = 0; i < 10; i++)
+			testStorage();
+	}
 }
 
 
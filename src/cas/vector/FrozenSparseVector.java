@@ -0,0 +1,207 @@
+package cas.vector;
+
+import java.util.*;
+
+/**
+ * Immutable sparse vector stored as two parallel arrays (CSR-row layout): indices in strictly
+ * increasing order and the values that belong to them.
+ * Ordered iteration / merging is a linear walk over the arrays, no sorting and no per-element objects.
+ * Usually obtained from SparseVector.freeze().
+ * @author kex, linyang
+ *
+ */
+public class FrozenSparseVector implements Vector<Pair<Integer, Double>>{
+	private final int length;
+	private final int[] indices;
+	private final double[] values;
+
+	/**
+	 * construct a FrozenSparseVector from (index, value) arrays in any order.
+	 * the arrays are copied, the first n elements are used.
+	 * @param length the total length represented by the vector
+	 * @param indices
+	 * @param values
+	 * @param n number of elements
+	 */
+	FrozenSparseVector(int length, int[] indices, double[] values, int n){
+		this.length = length;
+		this.indices = Arrays.copyOf(indices, n);
+		this.values = Arrays.copyOf(values, n);
+
+		if(!isSorted(this.indices))
+			sortByIndex(this.indices, this.values);
+	}
+
+	private static boolean isSorted(int[] indices){
+		for(int i = 1; i < indices.length; i++)
+			if(indices[i - 1] >= indices[i]) return false;
+		return true;
+	}
+
+	// sort both arrays by increasing index. the (index, position) pairs are packed into longs so
+	// that a single primitive sort does the job.
+	private static void sortByIndex(int[] indices, double[] values){
+		int n = indices.length;
+		long[] packed = new long[n];
+		for(int i = 0; i < n; i++)
+			packed[i] = ((long)indices[i] << 32) | i;
+		Arrays.sort(packed);
+
+		double[] oldValues = Arrays.copyOf(values, n);
+		for(int i = 0; i < n; i++){
+			indices[i] = (int)(packed[i] >>> 32);
+			values[i] = oldValues[(int)packed[i]];
+		}
+	}
+
+	/**
+	 * @return the total length represented by the vector
+	 */
+	public int size(){
+		return this.length;
+	}
+
+	/**
+	 * @return the number of elements actually stored
+	 */
+	@Override
+	public int numOfElements(){
+		return this.indices.length;
+	}
+
+	// sorted index array. shared, must not be modified
+	int[] indices(){
+		return this.indices;
+	}
+
+	// value array, parallel to indices(). shared, must not be modified
+	double[] values(){
+		return this.values;
+	}
+
+	/**
+	 *  get the idx-th element. O(log(n)) binary search.
+	 *  @return the value of idx-th element, or null if it does not exist
+	 */
+	public Double get(int idx){
+		if(idx < 0 || idx >= length){
+			System.out.println("Index out of bound in Sparse Vector");
+			return null;
+		}
+
+		int pos = Arrays.binarySearch(this.indices, idx);
+		return pos < 0 ? null : this.values[pos];
+	}
+
+	/**
+	 *  primitive version of get(). returns 0.0 for elements that are not stored.
+	 */
+	public double getDouble(int idx){
+		if(idx < 0 || idx >= length)
+			throw new IndexOutOfBoundsException("Index: " + idx + ", Length: " + length);
+		int pos = Arrays.binarySearch(this.indices, idx);
+		return pos < 0 ? 0.0 : this.values[pos];
+	}
+
+	public void print(){
+		for(int i = 0; i < this.indices.length; i++)
+			System.out.print(this.indices[i] + ":" + this.values[i] + " ");
+		System.out.println("");
+	}
+
+	@Override
+	public VectorCursor cursor(){
+		return new FrozenSparseVectorCursor();
+	}
+
+	private class FrozenSparseVectorCursor implements VectorCursor{
+		private int pos = -1;
+
+		@Override
+		public int nextIndex(){
+			if(pos < indices.length) pos++;
+			return pos < indices.length ? indices[pos] : -1;
+		}
+
+		@Override
+		public double value(){
+			return values[pos];
+		}
+	}
+
+	@Override
+	public Iterator<Pair<Integer, Double>> iterator() {
+		return new FrozenSparseVectorIterator();
+	}
+
+	/**
+	 * ordered iterator, O(1) per element.
+	 */
+	class FrozenSparseVectorIterator implements Iterator<Pair<Integer, Double>>{
+		private int csize; // current position
+
+		@Override
+		public boolean hasNext() {
+			return csize < indices.length;
+		}
+
+		@Override
+		public Pair<Integer, Double> next() {
+			if(!hasNext()) return null;
+			Pair<Integer, Double> pair = new Pair<Integer, Double>(indices[csize], values[csize]);
+			csize++;
+			return pair;
+		}
+
+		@Override
+		public void remove() {
+			// the vector is immutable. like the old SparseVectorIterator, only the iteration skips
+			// the next element.
+			if(hasNext()) csize++;
+		}
+	}
+
+	// test function for freeze(): sorted cursor and iterator, binary-search lookups, and a snapshot
+	// that is replaced, not changed, when its SparseVector is modified
+	private static void testFreeze()
+	{
+		Random r = new Random();
+		int length = 1 + r.nextInt(1000);
+		SparseVector vec = new SparseVector(length, r.nextBoolean() ? SparseVector.Storage.HASH_MAP : SparseVector.Storage.OPEN_ADDRESSING);
+		double[] array = new double[length];
+		boolean[] stored = new boolean[length];
+		for(int i = 0; i < length / 3; i ++)
+		{
+			int idx = r.nextInt(length);
+			array[idx] = r.nextDouble();
+			stored[idx] = true;
+			vec.set(idx, array[idx]);
+		}
+		FrozenSparseVector frozen = vec.freeze();
+		boolean ok = frozen == vec.freeze();
+		ok &= isSorted(frozen.indices) && frozen.numOfElements() == vec.numOfElements();
+		VectorCursor cur = frozen.cursor();
+		Iterator<Pair<Integer, Double>> it = frozen.iterator();
+		int count = 0;
+		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex(), count ++)
+		{
+			Pair<Integer, Double> pair = it.next();
+			ok &= stored[i] && cur.value() == array[i] && pair.getKey() == i && pair.getValue() == array[i];
+		}
+		ok &= count == frozen.numOfElements() && !it.hasNext() && cur.nextIndex() < 0;
+		for(int i = 0; i < length; i ++)
+			ok &= frozen.getDouble(i) == array[i] && (stored[i] ? frozen.get(i) == array[i] : frozen.get(i) == null);
+
+		int idx = r.nextInt(length);
+		double old = array[idx];
+		vec.set(idx, old + 1.0);
+		ok &= vec.freeze() != frozen && frozen.getDouble(idx) == old && vec.freeze().getDouble(idx) == old + 1.0;
+		System.out.println(ok);
+	}
+
+	public static void main(String[] args)
+	{
+		for(int i = 0; i < 10; i ++)
+			testFreeze();
+	}
+}
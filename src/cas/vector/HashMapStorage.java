@@ -0,0 +1,55 @@
+package cas.vector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the original backend, a java.util.HashMap. boxes both keys and values.
+ *
+ * @author kex, linyang
+ *
+ */
+class HashMapStorage implements SparseStorage{
+	private Map<Integer, Double> elements;
+
+	HashMapStorage(){
+		this.elements = new HashMap<Integer, Double>();
+	}
+
+	@Override
+	public boolean contains(int key){
+		return this.elements.containsKey(key);
+	}
+
+	@Override
+	public double get(int key, double defaultValue){
+		Double val = this.elements.get(key);
+		return val == null ? defaultValue : val;
+	}
+
+	@Override
+	public void put(int key, double value){
+		this.elements.put(key, value);
+	}
+
+	@Override
+	public int size(){
+		return this.elements.size();
+	}
+
+	@Override
+	public void clear(){
+		this.elements.clear();
+	}
+
+	@Override
+	public int toArrays(int[] keys, double[] values){
+		int n = 0;
+		for(Map.Entry<Integer, Double> item : this.elements.entrySet()){
+			keys[n] = item.getKey();
+			values[n] = item.getValue();
+			n++;
+		}
+		return n;
+	}
+}
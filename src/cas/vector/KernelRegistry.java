@@ -0,0 +1,107 @@
+package cas.vector;
+
+import java.util.*;
+
+/**
+ * Double dispatch for VectorOperator: maps a pair of vector classes to the VectorKernel for
+ * that pair, and a single vector class to its UnaryKernel. Lookups are on the exact runtime
+ * classes; a pair nobody registered gets the generic cursor kernel, which is correct for every
+ * Vector. Adding a storage type therefore only needs its kernels registered here, no change
+ * to VectorOperator.
+ *
+ * register(A, B, k) also serves (B, A) through a SwappedKernel, unless (B, A) has its own
+ * registration. The tables are copy-on-write, so lookups take no lock.
+ * @author kex, linyang
+ *
+ */
+final class KernelRegistry{
+	private static final VectorKernel<Vector<?>, Vector<?>> GENERIC = new VectorKernel<Vector<?>, Vector<?>>();
+	private static final UnaryKernel<Vector<?>> GENERIC_UNARY = new UnaryKernel<Vector<?>>();
+
+	private static volatile Map<Class<?>, Map<Class<?>, VectorKernel<?, ?>>> kernels = new IdentityHashMap<Class<?>, Map<Class<?>, VectorKernel<?, ?>>>();
+	private static volatile Map<Class<?>, UnaryKernel<?>> unaryKernels = new IdentityHashMap<Class<?>, UnaryKernel<?>>();
+	// pairs registered explicitly; a swapped kernel never replaces one of them
+	private static final Set<List<Class<?>>> explicit = new HashSet<List<Class<?>>>();
+
+	static{
+		register(DenseVector.class, DenseVector.class, new VectorKernel.DenseDenseKernel());
+		register(FrozenSparseVector.class, FrozenSparseVector.class, new VectorKernel.FrozenFrozenKernel());
+		register(FrozenSparseVector.class, DenseVector.class, new VectorKernel.FrozenDenseKernel());
+		VectorKernel.FreezingKernel freezing = new VectorKernel.FreezingKernel();
+		register(SparseVector.class, SparseVector.class, freezing);
+		register(SparseVector.class, FrozenSparseVector.class, freezing);
+		register(SparseVector.class, DenseVector.class, freezing);
+
+		register(DenseVector.class, new UnaryKernel.DenseUnaryKernel());
+		register(FrozenSparseVector.class, new UnaryKernel.FrozenUnaryKernel());
+		register(SparseVector.class, new UnaryKernel.SparseUnaryKernel());
+	}
+
+	private KernelRegistry(){
+
+	}
+
+	/**
+	 * use kernel for every (a, b) pair, and for (b, a) unless that pair is registered itself.
+	 * replaces an earlier registration of the same pair.
+	 */
+	static synchronized <A extends Vector<?>, B extends Vector<?>> void register(Class<A> a, Class<B> b, VectorKernel<? super A, ? super B> kernel){
+		if(a == null || b == null || kernel == null) throw new NullPointerException();
+		Map<Class<?>, Map<Class<?>, VectorKernel<?, ?>>> table = copy(kernels);
+		put(table, a, b, kernel);
+		explicit.add(Arrays.<Class<?>>asList(a, b));
+		if(a != b && !explicit.contains(Arrays.<Class<?>>asList(b, a)))
+			put(table, b, a, swap(kernel));
+		kernels = table;
+	}
+
+	/**
+	 * use kernel for single vectors of class a. replaces an earlier registration.
+	 */
+	static synchronized <A extends Vector<?>> void register(Class<A> a, UnaryKernel<? super A> kernel){
+		if(a == null || kernel == null) throw new NullPointerException();
+		Map<Class<?>, UnaryKernel<?>> table = new IdentityHashMap<Class<?>, UnaryKernel<?>>(unaryKernels);
+		table.put(a, kernel);
+		unaryKernels = table;
+	}
+
+	/**
+	 * @return the kernel for the runtime classes of vec1 and vec2, the generic one if none is registered
+	 */
+	@SuppressWarnings("unchecked") // register() keys every kernel by classes its arguments accept
+	static VectorKernel<Vector<?>, Vector<?>> kernel(Vector<?> vec1, Vector<?> vec2){
+		Map<Class<?>, VectorKernel<?, ?>> row = kernels.get(vec1.getClass());
+		if(row == null) return GENERIC;
+		VectorKernel<?, ?> kernel = row.get(vec2.getClass());
+		return kernel == null ? GENERIC : (VectorKernel<Vector<?>, Vector<?>>) kernel;
+	}
+
+	/**
+	 * @return the unary kernel for the runtime class of vec, the generic one if none is registered
+	 */
+	@SuppressWarnings("unchecked") // same as above
+	static UnaryKernel<Vector<?>> kernel(Vector<?> vec){
+		UnaryKernel<?> kernel = unaryKernels.get(vec.getClass());
+		return kernel == null ? GENERIC_UNARY : (UnaryKernel<Vector<?>>) kernel;
+	}
+
+	private static <A extends Vector<?>, B extends Vector<?>> VectorKernel<B, A> swap(VectorKernel<A, B> kernel){
+		return new VectorKernel.SwappedKernel<A, B>(kernel);
+	}
+
+	private static Map<Class<?>, Map<Class<?>, VectorKernel<?, ?>>> copy(Map<Class<?>, Map<Class<?>, VectorKernel<?, ?>>> table){
+		Map<Class<?>, Map<Class<?>, VectorKernel<?, ?>>> result = new IdentityHashMap<Class<?>, Map<Class<?>, VectorKernel<?, ?>>>();
+		for(Map.Entry<Class<?>, Map<Class<?>, VectorKernel<?, ?>>> e : table.entrySet())
+			result.put(e.getKey(), new IdentityHashMap<Class<?>, VectorKernel<?, ?>>(e.getValue()));
+		return result;
+	}
+
+	private static void put(Map<Class<?>, Map<Class<?>, VectorKernel<?, ?>>> table, Class<?> a, Class<?> b, VectorKernel<?, ?> kernel){
+		Map<Class<?>, VectorKernel<?, ?>> row = table.get(a);
+		if(row == null){
+			row = new IdentityHashMap<Class<?>, VectorKernel<?, ?>>();
+			table.put(a, row);
+		}
+		row.put(b, kernel);
+	}
+}
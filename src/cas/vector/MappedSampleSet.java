@@ -0,0 +1,260 @@
+package cas.vector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import cas.SampleSet;
+
+/**
+ * SampleSet over a VectorFile that is memory-mapped instead of parsed.
+ * Opening only maps the file and scans the offsets table, so it is near-instant even for files
+ * far larger than the heap. get() returns zero-copy read-only views: an OffHeapDenseVector for
+ * DENSE records and a MappedSparseVector for SPARSE records. Pages are loaded by the OS on
+ * first access.
+ *
+ * The file is mapped in segments of at most 1GB (one record per segment if it is larger), since
+ * a single mapping is limited to 2GB.
+ * @author kex, linyang
+ *
+ */
+public class MappedSampleSet extends SampleSet<Vector<?>> implements Closeable{
+	private static final long SEGMENT_BYTES = 1L << 30;
+
+	private final int count;
+	private LongBuffer offsets;          // offsets table of the file
+	private long[] segmentStart;         // file offset of every mapped segment
+	private MappedByteBuffer[] segments;
+
+	/**
+	 * map a file written by VectorFile.write()
+	 * @param file
+	 * @throws IOException if the file is not a valid vector file
+	 */
+	public MappedSampleSet(File file) throws IOException{
+		super();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			long fileLength = channel.size();
+			if(fileLength < VectorFile.HEADER_BYTES)
+				throw new IOException("Not a vector file: " + file);
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, VectorFile.HEADER_BYTES)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			if(header.getInt(0) != VectorFile.MAGIC || header.getInt(4) != VectorFile.VERSION)
+				throw new IOException("Not a vector file: " + file);
+			this.count = header.getInt(8);
+
+			long tableBytes = 8L * (count + 1);
+			if(count < 0 || VectorFile.HEADER_BYTES + tableBytes > Math.min(fileLength, Integer.MAX_VALUE))
+				throw new IOException("Corrupted vector file: " + file);
+			this.offsets = channel.map(FileChannel.MapMode.READ_ONLY, VectorFile.HEADER_BYTES, tableBytes)
+					.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+			if(offsets.get(count) != fileLength)
+				throw new IOException("Corrupted vector file: " + file);
+
+			mapSegments(channel);
+		}finally{
+			// mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	// group consecutive records into segments of at most SEGMENT_BYTES and map each of them
+	private void mapSegments(FileChannel channel) throws IOException{
+		ArrayList<Long> starts = new ArrayList<Long>();
+		long start = offsets.get(0);
+		for(int i = 0; i < count; i++){
+			long end = offsets.get(i + 1);
+			if(end - offsets.get(i) > Integer.MAX_VALUE)
+				throw new IOException("Record " + i + " is larger than 2GB");
+			if(end - start > SEGMENT_BYTES && offsets.get(i) > start){
+				starts.add(start);
+				start = offsets.get(i);
+			}
+		}
+		starts.add(start);
+		starts.add(offsets.get(count));
+
+		int n = starts.size() - 1;
+		this.segmentStart = new long[n + 1];
+		this.segments = new MappedByteBuffer[n];
+		for(int s = 0; s <= n; s++)
+			this.segmentStart[s] = starts.get(s);
+		for(int s = 0; s < n; s++){
+			this.segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart[s], segmentStart[s + 1] - segmentStart[s]);
+			this.segments[s].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	@Override
+	public int size(){
+		return this.count;
+	}
+
+	/**
+	 * @return a zero-copy read-only view of the idx-th vector
+	 */
+	@Override
+	public Vector<?> get(int idx){
+		if(segments == null) throw new IllegalStateException("MappedSampleSet is closed");
+		if(idx < 0 || idx >= count) throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + count);
+
+		long offset = offsets.get(idx);
+		int s = Arrays.binarySearch(segmentStart, offset);
+		if(s < 0) s = -s - 2;
+		ByteBuffer seg = segments[s].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int pos = (int)(offset - segmentStart[s]);
+
+		int type = seg.getInt(pos);
+		int length = seg.getInt(pos + 4);
+		int nnz = seg.getInt(pos + 8);
+		pos += VectorFile.RECORD_HEADER_BYTES;
+
+		if(type == VectorFile.DENSE)
+			return new OffHeapDenseVector(slice(seg, pos, 8L * length).asDoubleBuffer());
+
+		DoubleBuffer values = slice(seg, pos, 8L * nnz).asDoubleBuffer();
+		IntBuffer indices = slice(seg, pos + 8 * nnz, 4L * nnz).asIntBuffer();
+		return new MappedSparseVector(length, indices, values);
+	}
+
+	private static ByteBuffer slice(ByteBuffer seg, int pos, long bytes){
+		seg.limit((int)(pos + bytes)).position(pos);
+		ByteBuffer slice = seg.slice().order(ByteOrder.LITTLE_ENDIAN);
+		seg.clear();
+		return slice;
+	}
+
+	/**
+	 * materializes a view of every sample. prefer get() / iterator() on large files.
+	 */
+	@Override
+	public ArrayList<Vector<?>> getSamples(){
+		ArrayList<Vector<?>> samples = new ArrayList<Vector<?>>(count);
+		for(int i = 0; i < count; i++)
+			samples.add(get(i));
+		return samples;
+	}
+
+	/**
+	 * detach from the file. the mapping itself is released by the GC once no view refers to it;
+	 * it is not unmapped eagerly because views handed out by get() may still be in use.
+	 */
+	@Override
+	public void close(){
+		this.segments = null;
+		this.offsets = null;
+	}
+
+	// random vectors of every representation: dense, sparse, frozen and off-heap, including empty
+	// ones and sparse vectors with an odd number of elements (padded records)
+	private static Vector<?>[] randomVectors(Random r, double[][] arrays){
+		Vector<?>[] vecs = new Vector<?>[arrays.length];
+		for(int i = 0; i < arrays.length; i++){
+			double[] array = arrays[i] = new double[r.nextInt(50)];
+			int kind = r.nextInt(4);
+			for(int j = 0; j < array.length; j++)
+				array[j] = kind == 0 || kind == 3 || r.nextInt(4) == 0 ? r.nextDouble() - 0.5 : 0.0;
+			if(kind == 0){
+				vecs[i] = new DenseVector(array.clone());
+			}else if(kind == 3){
+				vecs[i] = new OffHeapDenseVector(new DenseVector(array.clone()));
+			}else{
+				SparseVector vec = new SparseVector(array.length);
+				for(int j = 0; j < array.length; j++)
+					if(array[j] != 0.0)
+						vec.set(j, array[j]);
+				vecs[i] = kind == 2 ? vec.freeze() : vec;
+			}
+		}
+		return vecs;
+	}
+
+	// true if vec holds exactly array, through getDouble and cursor
+	private static boolean matches(Vector<?> vec, Vector<?> original, double[] array){
+		boolean ok = vec.size() == array.length && vec.numOfElements() == original.numOfElements();
+		for(int j = 0; j < array.length; j++)
+			ok &= vec.getDouble(j) == array[j];
+		VectorCursor cur = vec.cursor();
+		int last = -1;
+		for(int j = cur.nextIndex(); j >= 0; j = cur.nextIndex()){
+			ok &= j > last && cur.value() == array[j];
+			last = j;
+		}
+		return ok;
+	}
+
+	// test function: vectors written by VectorFile, from an array and from a SampleSet, read back unchanged
+	private static void testRoundTrip() throws IOException{
+		Random r = new Random();
+		double[][] arrays = new double[r.nextInt(30)][];
+		Vector<?>[] vecs = randomVectors(r, arrays);
+		File file = File.createTempFile("vectors", ".bin");
+		file.deleteOnExit();
+		VectorFile.write(file, vecs);
+
+		MappedSampleSet mapped = new MappedSampleSet(file);
+		boolean ok = mapped.size() == vecs.length;
+		for(int i = 0; i < vecs.length; i++){
+			Vector<?> vec = mapped.get(i);
+			ok &= vec instanceof OffHeapDenseVector == (vecs[i].numOfElements() == arrays[i].length);
+			ok &= vec instanceof MappedSparseVector == (vecs[i].numOfElements() != arrays[i].length);
+			ok &= matches(vec, vecs[i], arrays[i]);
+		}
+
+		File copy = File.createTempFile("vectors", ".bin");
+		copy.deleteOnExit();
+		VectorFile.write(copy, mapped);
+		MappedSampleSet remapped = new MappedSampleSet(copy);
+		ok &= remapped.size() == vecs.length && copy.length() == file.length();
+		for(int i = 0; i < vecs.length; i++)
+			ok &= matches(remapped.get(i), vecs[i], arrays[i]);
+		mapped.close();
+		remapped.close();
+		file.delete();
+		copy.delete();
+		System.out.println(ok);
+	}
+
+	// test function: a closed set refuses access, files that are not vector files are refused on open
+	private static void testInvalid() throws IOException{
+		File file = File.createTempFile("vectors", ".bin");
+		file.deleteOnExit();
+		VectorFile.write(file, new Vector<?>[]{ new DenseVector(new double[]{ 1.0, 2.0 }) });
+		MappedSampleSet mapped = new MappedSampleSet(file);
+		mapped.close();
+		int refused = 0;
+		try{ mapped.get(0); }catch(IllegalStateException e){ refused++; }
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(file.length() - 8);    // truncated record
+			try{ new MappedSampleSet(file); }catch(IOException e){ refused++; }
+			raf.writeInt(0);                     // bad magic number
+			try{ new MappedSampleSet(file); }catch(IOException e){ refused++; }
+			raf.setLength(4);                    // shorter than the header
+			try{ new MappedSampleSet(file); }catch(IOException e){ refused++; }
+		}finally{
+			raf.close();
+		}
+		file.delete();
+		System.out.println(refused == 4);
+	}
+
+	public static void main(String[] args) throws IOException{
+		for(int i = 0; i < 10; i++)
+			testRoundTrip();
+		testInvalid();
+	}
+}
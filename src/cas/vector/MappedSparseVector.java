@@ -0,0 +1,139 @@
+package cas.vector;
+
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * Read-only sparse vector over off-heap buffers: sorted indices and the values that belong to them.
+ * The buffer counterpart of FrozenSparseVector, used for the zero-copy views of MappedSampleSet.
+ * @author kex, linyang
+ *
+ */
+public class MappedSparseVector implements Vector<Pair<Integer, Double>>{
+	private final int length;
+	private final IntBuffer indices;
+	private final DoubleBuffer values;
+
+	/**
+	 * @param length the total length represented by the vector
+	 * @param indices strictly increasing indices, element k is at absolute position k
+	 * @param values values parallel to indices
+	 */
+	MappedSparseVector(int length, IntBuffer indices, DoubleBuffer values){
+		this.length = length;
+		this.indices = indices;
+		this.values = values;
+	}
+
+	@Override
+	public int size(){
+		return this.length;
+	}
+
+	@Override
+	public int numOfElements(){
+		return this.indices.capacity();
+	}
+
+	// position of idx in the index buffer, or -1
+	private int find(int idx){
+		int lo = 0, hi = this.indices.capacity() - 1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			int key = this.indices.get(mid);
+			if(key < idx) lo = mid + 1;
+			else if(key > idx) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 *  get the idx-th element. O(log(n)) binary search.
+	 *  @return the value of idx-th element, or null if it does not exist
+	 */
+	public Double get(int idx){
+		if(idx < 0 || idx >= length){
+			System.out.println("Index out of bound in Sparse Vector");
+			return null;
+		}
+		int pos = find(idx);
+		return pos < 0 ? null : this.values.get(pos);
+	}
+
+	@Override
+	public double getDouble(int idx){
+		if(idx < 0 || idx >= length)
+			throw new IndexOutOfBoundsException("Index: " + idx + ", Length: " + length);
+		int pos = find(idx);
+		return pos < 0 ? 0.0 : this.values.get(pos);
+	}
+
+	/**
+	 * copy this vector onto the heap
+	 * @return a FrozenSparseVector with the same length and elements
+	 */
+	public FrozenSparseVector toFrozenSparseVector(){
+		int n = numOfElements();
+		int[] idx = new int[n];
+		double[] val = new double[n];
+		for(int k = 0; k < n; k++){
+			idx[k] = this.indices.get(k);
+			val[k] = this.values.get(k);
+		}
+		return new FrozenSparseVector(length, idx, val, n);
+	}
+
+	public void print(){
+		for(int k = 0; k < numOfElements(); k++)
+			System.out.print(this.indices.get(k) + ":" + this.values.get(k) + " ");
+		System.out.println("");
+	}
+
+	@Override
+	public VectorCursor cursor(){
+		return new MappedSparseCursor();
+	}
+
+	private class MappedSparseCursor implements VectorCursor{
+		private final int n = numOfElements();
+		private int pos = -1;
+
+		@Override
+		public int nextIndex(){
+			if(pos < n) pos++;
+			return pos < n ? indices.get(pos) : -1;
+		}
+
+		@Override
+		public double value(){
+			return values.get(pos);
+		}
+	}
+
+	@Override
+	public Iterator<Pair<Integer, Double>> iterator(){
+		return new Iterator<Pair<Integer, Double>>(){
+			private int csize;
+
+			@Override
+			public boolean hasNext(){
+				return csize < numOfElements();
+			}
+
+			@Override
+			public Pair<Integer, Double> next(){
+				if(!hasNext()) return null;
+				Pair<Integer, Double> pair = new Pair<Integer, Double>(indices.get(csize), values.get(csize));
+				csize++;
+				return pair;
+			}
+
+			@Override
+			public void remove(){
+
+			}
+		};
+	}
+}
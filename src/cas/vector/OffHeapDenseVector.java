@@ -0,0 +1,262 @@
+package cas.vector;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.*;
+
+/**
+ * Dense vector whose elements live outside the java heap, in direct ByteBuffers.
+ * Multi-gigabyte vectors are neither scanned nor moved by the GC. They are not free of limits though:
+ * direct memory is capped by -XX:MaxDirectMemorySize, which defaults to the maximum heap size (-Xmx),
+ * so very large vectors usually need that flag raised.
+ *
+ * close() ends the lifetime of the vector, not of its memory: any access after it, through the vector or
+ * through a cursor or iterator created before, throws IllegalStateException. The memory is not freed
+ * eagerly, since Java 7 has no supported way to do so and a cursor on another thread may still be
+ * reading it. Each direct buffer is released by its Cleaner at the first GC after neither the vector nor
+ * any cursor references it. An allocation that would pass MaxDirectMemorySize runs System.gc() and
+ * retries first, so closing and dropping vectors does make room for new ones, unless explicit GC is
+ * disabled (-XX:+DisableExplicitGC).
+ *
+ * Storage is split into chunks of 2^27 doubles (1GB) since a single ByteBuffer is limited to 2GB.
+ * Works with every VectorOperator kernel through getDouble() / cursor().
+ * @author kex, linyang
+ *
+ */
+public class OffHeapDenseVector implements Vector<Double>, Closeable{
+	private static final int CHUNK_SHIFT = 27;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final int size;
+	private ByteBuffer[] memory;    // raw buffers, owned by this vector. null once closed, and for views
+	private DoubleBuffer[] chunks;  // double views of memory. null once closed
+
+	/**
+	 * allocate an off-heap vector of the given size, initialized to zeros
+	 * @param size
+	 */
+	public OffHeapDenseVector(int size){
+		this.size = size;
+		int n = (int)(((long)size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+		this.memory = new ByteBuffer[n];
+		this.chunks = new DoubleBuffer[n];
+		for(int c = 0; c < n; c++){
+			int len = Math.min(CHUNK_SIZE, size - (c << CHUNK_SHIFT));
+			this.memory[c] = ByteBuffer.allocateDirect(len << 3).order(ByteOrder.nativeOrder());
+			this.chunks[c] = this.memory[c].asDoubleBuffer();
+		}
+	}
+
+	/**
+	 * wrap existing off-heap memory without copying, e.g. a region of a memory-mapped file.
+	 * the vector does not own that memory: close() only detaches the vector from it.
+	 * @param view the elements, from its position to its limit
+	 */
+	public OffHeapDenseVector(DoubleBuffer view){
+		this.size = view.remaining();
+		int n = (int)(((long)size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT);
+		this.memory = null;
+		this.chunks = new DoubleBuffer[n];
+		for(int c = 0; c < n; c++){
+			DoubleBuffer chunk = view.duplicate();
+			chunk.position(view.position() + (c << CHUNK_SHIFT));
+			chunk.limit(chunk.position() + Math.min(CHUNK_SIZE, size - (c << CHUNK_SHIFT)));
+			this.chunks[c] = chunk.slice();
+		}
+	}
+
+	/**
+	 * allocate an off-heap copy of vec
+	 * @param vec
+	 */
+	public OffHeapDenseVector(DenseVector vec){
+		this(vec.size());
+		double[] values = vec.array();
+		for(int c = 0; c < this.chunks.length; c++){
+			DoubleBuffer chunk = this.chunks[c].duplicate();
+			chunk.clear();
+			chunk.put(values, c << CHUNK_SHIFT, chunk.capacity());
+		}
+	}
+
+	private DoubleBuffer[] chunks(){
+		DoubleBuffer[] c = this.chunks;
+		if(c == null) throw new IllegalStateException("OffHeapDenseVector is closed");
+		return c;
+	}
+
+	@Override
+	public int size(){
+		return this.size;
+	}
+
+	@Override
+	public int numOfElements(){
+		return this.size;
+	}
+
+	@Override
+	public double getDouble(int idx){
+		if(idx < 0 || idx >= this.size) throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + this.size);
+		return chunks()[idx >>> CHUNK_SHIFT].get(idx & CHUNK_MASK);
+	}
+
+	public void setDouble(int idx, double value){
+		if(idx < 0 || idx >= this.size) throw new IndexOutOfBoundsException("Index: " + idx + ", Size: " + this.size);
+		chunks()[idx >>> CHUNK_SHIFT].put(idx & CHUNK_MASK, value);
+	}
+
+	/**
+	 * set the value in every dimension to zero
+	 */
+	public void setZeros(){
+		for(DoubleBuffer chunk : chunks())
+			for(int i = 0; i < chunk.capacity(); i++)
+				chunk.put(i, 0.0);
+	}
+
+	/**
+	 * copy this vector back onto the heap
+	 * @return a new DenseVector
+	 */
+	public DenseVector toDenseVector(){
+		DenseVector vec = new DenseVector(this.size);
+		double[] values = vec.array();
+		DoubleBuffer[] c = chunks();
+		for(int k = 0; k < c.length; k++){
+			DoubleBuffer chunk = c[k].duplicate();
+			chunk.clear();
+			chunk.get(values, k << CHUNK_SHIFT, chunk.capacity());
+		}
+		return vec;
+	}
+
+	/**
+	 * detach the vector from its memory. further access, also through existing cursors and iterators,
+	 * throws IllegalStateException. calling close() more than once has no effect. the memory is returned
+	 * by a later GC, see the class comment.
+	 */
+	@Override
+	public void close(){
+		this.chunks = null;
+		this.memory = null;
+	}
+
+	public boolean isClosed(){
+		return this.chunks == null;
+	}
+
+	@Override
+	public VectorCursor cursor(){
+		return new OffHeapCursor();
+	}
+
+	/**
+	 * cursor over all dimensions, zeros included. it keeps the chunks reachable, so the memory stays
+	 * valid while the cursor lives, but every step checks that the vector has not been closed.
+	 */
+	private class OffHeapCursor implements VectorCursor{
+		private final DoubleBuffer[] c = chunks();
+		private int idx = -1;
+
+		@Override
+		public int nextIndex(){
+			chunks();
+			if(idx < size) idx++;
+			return idx < size ? idx : -1;
+		}
+
+		@Override
+		public double value(){
+			chunks();
+			return c[idx >>> CHUNK_SHIFT].get(idx & CHUNK_MASK);
+		}
+	}
+
+	@Override
+	public Iterator<Double> iterator(){
+		return new Iterator<Double>(){
+			private final VectorCursor cur = cursor();
+			private int next = cur.nextIndex();
+
+			@Override
+			public boolean hasNext(){
+				return next >= 0;
+			}
+
+			@Override
+			public Double next(){
+				if(next < 0) return null;
+				double value = cur.value();
+				next = cur.nextIndex();
+				return value;
+			}
+
+			@Override
+			public void remove(){
+
+			}
+		};
+	}
+
+	public void print(){
+		for(int i = 0; i < this.size; i++)
+			System.out.print(getDouble(i) + " ");
+		System.out.println("");
+	}
+
+	// test function: values set through each constructor read back through get, cursor, iterator and
+	// toDenseVector; a view shares its buffer
+	private static void testValues(){
+		Random r = new Random();
+		int size = r.nextInt(1000);
+		double[] array = new double[size];
+		for(int i = 0; i < size; i++)
+			array[i] = r.nextDouble();
+		OffHeapDenseVector vec = new OffHeapDenseVector(new DenseVector(array));
+		DoubleBuffer buffer = ByteBuffer.allocateDirect(8 * (size + 3)).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		buffer.position(3);
+		OffHeapDenseVector view = new OffHeapDenseVector(buffer.slice());
+		boolean ok = vec.size() == size && view.size() == size;
+		for(int i = 0; i < size; i++)
+			view.setDouble(i, array[i]);
+		VectorCursor cur = vec.cursor();
+		Iterator<Double> it = view.iterator();
+		for(int i = 0; i < size; i++)
+			ok &= vec.getDouble(i) == array[i] && buffer.get(3 + i) == array[i] && cur.nextIndex() == i && cur.value() == array[i] && it.next() == array[i];
+		ok &= cur.nextIndex() < 0 && !it.hasNext();
+		ok &= Arrays.equals(vec.toDenseVector().array(), array);
+		vec.setZeros();
+		for(int i = 0; i < size; i++)
+			ok &= vec.getDouble(i) == 0.0;
+		System.out.println(ok);
+	}
+
+	// test function for close(): the vector and the cursors and iterators created before all refuse access
+	private static void testClose(){
+		OffHeapDenseVector vec = new OffHeapDenseVector(10);
+		VectorCursor cur = vec.cursor();
+		Iterator<Double> it = vec.iterator();
+		cur.nextIndex();
+		vec.close();
+		vec.close();
+		boolean ok = vec.isClosed();
+		int refused = 0;
+		try{ vec.getDouble(0); }catch(IllegalStateException e){ refused++; }
+		try{ vec.setDouble(0, 1.0); }catch(IllegalStateException e){ refused++; }
+		try{ cur.value(); }catch(IllegalStateException e){ refused++; }
+		try{ cur.nextIndex(); }catch(IllegalStateException e){ refused++; }
+		try{ it.next(); }catch(IllegalStateException e){ refused++; }
+		try{ vec.cursor(); }catch(IllegalStateException e){ refused++; }
+		System.out.println(ok && refused == 6);
+	}
+
+	public static void main(String[] args){
+		for(int i = 0; i < 10; i++)
+			testValues();
+		testClose();
+	}
+}
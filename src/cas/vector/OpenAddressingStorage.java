@@ -0,0 +1,133 @@
+package cas.vector;
+
+import java.util.Arrays;
+
+/**
+ * primitive open-addressing hash table (int[] keys, double[] values, linear probing).
+ * costs 12 bytes per slot, i.e. about 16 bytes per stored element at the maximum load factor,
+ * and never boxes.
+ *
+ * @author kex, linyang
+ *
+ */
+class OpenAddressingStorage implements SparseStorage{
+	private static final int EMPTY = -1;   // indices are never negative, so -1 marks a free slot
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] keys;
+	private double[] values;
+	private int mask;       // capacity - 1, capacity is always a power of two
+	private int size;
+	private int threshold;  // resize when size reaches threshold
+
+	OpenAddressingStorage(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param expected number of elements expected to be stored without resizing
+	 */
+	OpenAddressingStorage(int expected){
+		int capacity = DEFAULT_CAPACITY;
+		while(capacity * LOAD_FACTOR < expected)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity){
+		this.keys = new int[capacity];
+		Arrays.fill(this.keys, EMPTY);
+		this.values = new double[capacity];
+		this.mask = capacity - 1;
+		this.threshold = (int)(capacity * LOAD_FACTOR);
+		this.size = 0;
+	}
+
+	// spread the bits of key so that consecutive indices do not cluster
+	private int slot(int key){
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & this.mask;
+	}
+
+	// return the slot holding key, or -1 if key is absent
+	private int find(int key){
+		int i = slot(key);
+		while(true){
+			int k = this.keys[i];
+			if(k == key) return i;
+			if(k == EMPTY) return -1;
+			i = (i + 1) & this.mask;
+		}
+	}
+
+	@Override
+	public boolean contains(int key){
+		return find(key) >= 0;
+	}
+
+	@Override
+	public double get(int key, double defaultValue){
+		int i = find(key);
+		return i < 0 ? defaultValue : this.values[i];
+	}
+
+	@Override
+	public void put(int key, double value){
+		int i = slot(key);
+		while(true){
+			int k = this.keys[i];
+			if(k == key){
+				this.values[i] = value;
+				return;
+			}
+			if(k == EMPTY) break;
+			i = (i + 1) & this.mask;
+		}
+
+		this.keys[i] = key;
+		this.values[i] = value;
+		if(++this.size >= this.threshold)
+			rehash(this.keys.length << 1);
+	}
+
+	private void rehash(int capacity){
+		int[] oldKeys = this.keys;
+		double[] oldValues = this.values;
+		int oldSize = this.size;
+
+		allocate(capacity);
+		for(int j = 0; j < oldKeys.length; j++){
+			if(oldKeys[j] == EMPTY) continue;
+			int i = slot(oldKeys[j]);
+			while(this.keys[i] != EMPTY)
+				i = (i + 1) & this.mask;
+			this.keys[i] = oldKeys[j];
+			this.values[i] = oldValues[j];
+		}
+		this.size = oldSize;
+	}
+
+	@Override
+	public int size(){
+		return this.size;
+	}
+
+	@Override
+	public void clear(){
+		Arrays.fill(this.keys, EMPTY);
+		this.size = 0;
+	}
+
+	@Override
+	public int toArrays(int[] keys, double[] values){
+		int n = 0;
+		for(int i = 0; i < this.keys.length; i++){
+			if(this.keys[i] == EMPTY) continue;
+			keys[n] = this.keys[i];
+			values[n] = this.values[i];
+			n++;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,36 @@
+package cas.vector;
+
+class Pair<E extends Comparable<E>, T> implements Comparable<Pair<E, T>>{
+	private E key;
+	private T value;
+	
+	Pair(){
+		
+	}
+	
+	Pair(E key, T value){
+		this.key = key;
+		this.value = value;
+	}
+	
+	public void setKey(E key){
+		this.key = key;
+	}
+	
+	public void setValue(T value){
+		this.value = value;
+	}
+	
+	public E getKey(){
+		return key;
+	}
+	
+	public T getValue(){
+		return value;
+	}
+
+	@Override
+	public int compareTo(Pair<E, T> pair) {
+		return key.compareTo(pair.key);
+	}
+}
@@ -0,0 +1,29 @@
+package cas.vector;
+
+/**
+ * Storage backend for the non-zero elements of a SparseVector.
+ * Keys are the (non-negative) dimension indices, values are the stored numbers.
+ *
+ * @author kex, linyang
+ *
+ */
+interface SparseStorage{
+	public boolean contains(int key);
+
+	// return the value stored under key, or defaultValue if key is absent
+	public double get(int key, double defaultValue);
+
+	public void put(int key, double value);
+
+	// number of stored elements
+	public int size();
+
+	public void clear();
+
+	/**
+	 * copy all stored elements into keys / values (in no particular order).
+	 * both arrays must hold at least size() elements.
+	 * @return the number of elements copied
+	 */
+	public int toArrays(int[] keys, double[] values);
+}
@@ -13,6 +13,10 @@ import java.util.*;
  *  sparseVector).
  *  	2. change the inner structure to HashMap.
  *  	3. change the iterator class to internal class
+ *  	4. the inner structure is now a pluggable SparseStorage. HashMap is still the default,
+ *  a primitive open-addressing table can be selected with Storage.OPEN_ADDRESSING.
+ *  	5. freeze() builds a sorted FrozenSparseVector snapshot which is cached until the next
+ *  modification. iterator() walks that snapshot instead of sorting all elements on every call.
  *  
  *    TODO support any number besides the default '0';
  *  	   support other 'E' for <Integer, E> besides 'Double' to save space;
@@ -21,24 +25,55 @@ import java.util.*;
 
 // TODO  should rename it. because it is not like the original sparseVector class. this class mainly
 // 		 focus on search / find operation rather than regular matrix operations.
-class SparseVector implements Vector<Pair<Integer, Double>>{
+public class SparseVector implements Vector<Pair<Integer, Double>>{
+	/**
+	 * available backends for the stored elements.
+	 * HASH_MAP boxes keys and values (60+ bytes per element), OPEN_ADDRESSING keeps them in
+	 * primitive arrays (about 16 bytes per element).
+	 */
+	public enum Storage{
+		HASH_MAP, OPEN_ADDRESSING
+	}
+	
 	private int length; 
-	private Map<Integer, Double> elements;
+	private Storage storage;
+	private SparseStorage elements;
+	private FrozenSparseVector frozen;  // cached sorted snapshot, null when out of date
+	
+	public SparseVector(){
+		this(Integer.MAX_VALUE);
+	}
 	
-	SparseVector(){
-		this.length = Integer.MAX_VALUE;
-		this.elements = new HashMap<Integer, Double>();
+	public SparseVector(int length){
+		this(length, Storage.HASH_MAP);
 	}
 	
-	SparseVector(int length){
+	public SparseVector(int length, Storage storage){
 		this.length = length;
-		this.elements = new HashMap<Integer, Double>();
+		this.storage = storage;
+		this.elements = storage == Storage.OPEN_ADDRESSING ? 
+				new OpenAddressingStorage() : new HashMapStorage();
 	}
 	
 	public int size(){
 		return this.length;
 	}
 	
+	/**
+	 *  @return the storage backend this vector was created with
+	 */
+	public Storage storage(){
+		return this.storage;
+	}
+	
+	/**
+	 *  @return the number of elements actually stored in the sparseVector
+	 */
+	@Override
+	public int numOfElements(){
+		return this.elements.size();
+	}
+	
 	
 	/**
 	 *  get the idx-th element in the sparseVector
@@ -50,7 +85,16 @@ class SparseVector implements Vector<Pair<Integer, Double>>{
 			return null;
 		}
 		
-		return this.elements.get(idx);  
+		return this.elements.contains(idx) ? this.elements.get(idx, 0.0) : null;  
+	}
+	
+	/**
+	 *  primitive version of get(). returns 0.0 for elements that are not stored.
+	 */
+	public double getDouble(int idx){
+		if(idx < 0 || idx >= length) 
+			throw new IndexOutOfBoundsException("Index: " + idx + ", Length: " + length);
+		return this.elements.get(idx, 0.0);
 	}
 	
 	/**
@@ -63,67 +107,97 @@ class SparseVector implements Vector<Pair<Integer, Double>>{
 		}
 		
 		elements.put(idx, val);
+		frozen = null;
+	}
+	
+	/**
+	 *  remove all stored elements. the length is not changed.
+	 */
+	public void clear(){
+		this.elements.clear();
+		this.frozen = null;
+	}
+	
+	/**
+	 *  return an immutable copy of this vector with its elements sorted by index.
+	 *  the copy is cached, so repeated calls without modification in between are O(1).
+	 *  @return a FrozenSparseVector with the same length and elements
+	 */
+	public FrozenSparseVector freeze(){
+		if(frozen == null){
+			int n = elements.size();
+			int[] keys = new int[n];
+			double[] values = new double[n];
+			elements.toArrays(keys, values);
+			frozen = new FrozenSparseVector(length, keys, values, n);
+		}
+		return frozen;
 	}
 		
 	public void print(){
 		
 	}
 
+	/**
+	 * ordered cursor over the cached sorted snapshot, see freeze()
+	 */
 	@Override
-	public Iterator<Pair<Integer, Double>> iterator() {
-		return new SparseVectorIterator();
+	public VectorCursor cursor(){
+		return freeze().cursor();
 	}
 	
 	/**
-	 * iterator for sparseVector, providing ordered iteration.
-	 * O(nlog(n)) running time.
+	 * ordered iteration over the cached sorted snapshot, O(nlog(n)) only after a modification.
 	 */
-	class SparseVectorIterator implements Iterator<Pair<Integer, Double>>{
-		private Iterator iter;
-		private ArrayList<Pair<Integer, Double>> pairs;
-		private int csize, tsize;  // current size / total size
-		
-		SparseVectorIterator(){
-			iter = elements.entrySet().iterator();
-			
-			pairs = new ArrayList<Pair<Integer, Double>>();
-			while(iter.hasNext()){
-				Map.Entry<Integer, Double> item = 
-							(Map.Entry<Integer, Double>)(iter.next());
-				pairs.add(new Pair<Integer, Double>(item.getKey(), item.getValue()));
+	@Override
+	public Iterator<Pair<Integer, Double>> iterator() {
+		return freeze().iterator();
+	}
+	
+	// test function for the storage backends: random puts, overwrites and clears against a HashMap
+	private static void testStorage(Storage storage)
+	{
+		Random r = new Random();
+		int length = 1 + r.nextInt(100000);
+		SparseVector vec = new SparseVector(length, storage);
+		Map<Integer, Double> expected = new HashMap<Integer, Double>();
+		boolean ok = true;
+		for(int round = 0; round < 3; round ++)
+		{
+			// enough elements to grow the table several times, and repeated keys to overwrite
+			int puts = r.nextInt(5000);
+			for(int i = 0; i < puts; i ++)
+			{
+				int idx = r.nextInt(Math.min(length, 2 * puts + 1));
+				double d = r.nextDouble();
+				vec.set(idx, d);
+				expected.put(idx, d);
 			}
-			
-			// rank all pairs by increasing order with respect to Integer
-			class PairComparator implements Comparator<Pair<Integer, Double>>{
-				@Override
-				public int compare(Pair<Integer, Double> pair1, Pair<Integer, Double> pair2) {
-					return pair1.getKey().compareTo(pair2.getKey()); 
-				}
+			ok &= vec.numOfElements() == expected.size();
+			for(int i = 0; i < 1000; i ++)
+			{
+				int idx = r.nextInt(length);
+				Double e = expected.get(idx);
+				ok &= e == null ? vec.get(idx) == null && vec.getDouble(idx) == 0.0 : e.equals(vec.get(idx)) && vec.getDouble(idx) == e;
 			}
-			Collections.sort(pairs, new PairComparator());
-			
-			csize = 0;
-			tsize = pairs.size();
-		}
-		
-		@Override
-		public boolean hasNext() {
-			return csize < tsize;
-		}
-
-		@Override
-		public Pair<Integer, Double> next() {
-			return hasNext() ? pairs.get(csize++) : null;
-		}
-
-		@Override
-		public void remove() {
-			if(csize < tsize){
-				pairs.remove(csize);
-				tsize--;
+			for(Map.Entry<Integer, Double> e : expected.entrySet())
+				ok &= vec.getDouble(e.getKey()) == e.getValue();
+			if(round == 1)
+			{
+				vec.clear();
+				expected.clear();
+				ok &= vec.numOfElements() == 0;
 			}
 		}
+		System.out.println(ok);
+	}
+	
+	public static void main(String[] args)
+	{
+		for(int i = 0; i < 10; i ++)
+		{
+			testStorage(Storage.HASH_MAP);
+			testStorage(Storage.OPEN_ADDRESSING);
+		}
 	}
 }
-
-
@@ -0,0 +1,58 @@
+package cas.vector;
+
+/**
+ * Single-vector kernels of VectorOperator for one representation, same scheme as VectorKernel.
+ *
+ * @author kex, linyang
+ *
+ */
+class UnaryKernel<A extends Vector<?>>{
+
+	// sum of |vec(i)|
+	double absSum(A vec){
+		double sum = 0.0;
+		VectorCursor cur = vec.cursor();
+		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex())
+			sum += Math.abs(cur.value());
+		return sum;
+	}
+
+	// out = alpha .* vec, out has the size of vec
+	void scale(A vec, double alpha, DenseVector out){
+		if(!VectorKernel.isDense(vec))
+			out.setZeros();
+		VectorCursor cur = vec.cursor();
+		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex())
+			out.setDouble(i, cur.value() * alpha);
+	}
+
+	/* specialized kernels, registered in KernelRegistry */
+
+	static class DenseUnaryKernel extends UnaryKernel<DenseVector>{
+		@Override
+		double absSum(DenseVector vec){
+			return DenseKernels.absSum(vec.array(), vec.size());
+		}
+
+		@Override
+		void scale(DenseVector vec, double alpha, DenseVector out){
+			DenseKernels.scale(alpha, vec.array(), out.array(), vec.size());
+		}
+	}
+
+	static class FrozenUnaryKernel extends UnaryKernel<FrozenSparseVector>{
+		@Override
+		double absSum(FrozenSparseVector vec){
+			double[] values = vec.values();
+			return DenseKernels.absSum(values, values.length);
+		}
+	}
+
+	static class SparseUnaryKernel extends UnaryKernel<SparseVector>{
+		@Override
+		double absSum(SparseVector vec){
+			double[] values = vec.freeze().values();
+			return DenseKernels.absSum(values, values.length);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package cas.vector;
+
+public interface Vector<E> extends Iterable<E>, Visualizable{
+	public int size();
+	
+	// number of elements actually stored. equals size() for dense vectors
+	public int numOfElements();
+	
+	// primitive access to the idx-th element. 0.0 if it is not stored
+	public double getDouble(int idx);
+	
+	// primitive cursor over the stored elements, see VectorCursor
+	public VectorCursor cursor();
+	
+	/*
+	public void addNumber(E num);
+	public void subNumber(E num);
+	public void mulNumber(E num);
+	public void divNumber(E num);
+	
+	public void addVector(Vector<E> vec);
+	public void subVector(Vector<E> vec);
+	public void mulVector(Vector<E> vec);
+	public void divVector(Vector<E> vec);
+	*/
+	
+}
@@ -0,0 +1,38 @@
+package cas.vector;
+
+/**
+ * Direct access to the arrays behind DenseVector and FrozenSparseVector, for the matrix kernels
+ * in cas (Matrix, CellMatrix) that would otherwise copy a vector through getDouble() / cursor()
+ * on every product.
+ * The arrays are shared, not copied. A dense array may be longer than size(), only its first
+ * size() slots are valid; the frozen arrays must not be modified.
+ *
+ * @author kex, linyang
+ *
+ */
+public final class VectorArrays{
+	private VectorArrays(){
+
+	}
+
+	/**
+	 * @return the backing array of vec, valid up to vec.size()
+	 */
+	public static double[] dense(DenseVector vec){
+		return vec.array();
+	}
+
+	/**
+	 * @return the sorted index array of vec
+	 */
+	public static int[] indices(FrozenSparseVector vec){
+		return vec.indices();
+	}
+
+	/**
+	 * @return the value array of vec, parallel to indices(vec)
+	 */
+	public static double[] values(FrozenSparseVector vec){
+		return vec.values();
+	}
+}
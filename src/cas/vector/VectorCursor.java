@@ -0,0 +1,16 @@
+package cas.vector;
+
+/**
+ * primitive cursor over the stored elements of a Vector, in increasing index order.
+ * unlike Iterable, no object is created per element:
+ * 		VectorCursor cur = vec.cursor();
+ * 		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex())
+ * 			sum += cur.value();
+ */
+public interface VectorCursor{
+	// move to the next stored element and return its index, or -1 if there is none left
+	public int nextIndex();
+	
+	// value of the element whose index was returned by the last nextIndex()
+	public double value();
+}
@@ -0,0 +1,128 @@
+package cas.vector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import cas.SampleSet;
+
+/**
+ * Compact binary format for vector datasets, read back by MappedSampleSet without parsing.
+ * All numbers are little-endian, every block starts on an 8 byte boundary.
+ *
+ * 		header  : int MAGIC, int VERSION, int count, int reserved              (16 bytes)
+ * 		offsets : long[count + 1], byte offset of every record; the last one is the file length
+ * 		records : int type (DENSE / SPARSE), int length, int nnz, int reserved  (16 bytes)
+ * 		          DENSE  -> double[length]
+ * 		          SPARSE -> double[nnz] values, int[nnz] increasing indices, padded to 8 bytes
+ *
+ * A record must be smaller than 2GB.
+ * @author kex, linyang
+ *
+ */
+public final class VectorFile{
+	static final int MAGIC = 0x5649434F;  // "OCIV" read as little-endian bytes
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 16;
+	static final int RECORD_HEADER_BYTES = 16;
+	static final int DENSE = 0;
+	static final int SPARSE = 1;
+
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private VectorFile(){
+
+	}
+
+	/**
+	 * write vecs to file, replacing its content. vectors that store every dimension are written
+	 * as DENSE records, all others as SPARSE records.
+	 * @param file
+	 * @param vecs
+	 * @throws IOException
+	 */
+	public static void write(File file, Vector<?>[] vecs) throws IOException{
+		long[] offsets = new long[vecs.length + 1];
+		offsets[0] = HEADER_BYTES + 8L * offsets.length;
+		for(int i = 0; i < vecs.length; i++)
+			offsets[i + 1] = offsets[i] + recordBytes(vecs[i]);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+			buf.putInt(MAGIC).putInt(VERSION).putInt(vecs.length).putInt(0);
+			for(long offset : offsets){
+				ensure(channel, buf, 8);
+				buf.putLong(offset);
+			}
+
+			for(Vector<?> vec : vecs){
+				ensure(channel, buf, RECORD_HEADER_BYTES);
+				boolean dense = isDense(vec);
+				int nnz = vec.numOfElements();
+				buf.putInt(dense ? DENSE : SPARSE).putInt(vec.size()).putInt(nnz).putInt(0);
+
+				VectorCursor cur = vec.cursor();
+				for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex()){
+					ensure(channel, buf, 8);
+					buf.putDouble(cur.value());
+				}
+				if(dense) continue;
+
+				cur = vec.cursor();
+				for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex()){
+					ensure(channel, buf, 4);
+					buf.putInt(i);
+				}
+				if((nnz & 1) == 1){
+					ensure(channel, buf, 4);
+					buf.putInt(0);
+				}
+			}
+			flush(channel, buf);
+		}finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * write every sample of a SampleSet to file
+	 * @see #write(File, Vector[])
+	 */
+	public static <V extends Vector<?>> void write(File file, SampleSet<V> samples) throws IOException{
+		Vector<?>[] vecs = new Vector<?>[samples.size()];
+		for(int i = 0; i < vecs.length; i++)
+			vecs[i] = samples.get(i);
+		write(file, vecs);
+	}
+
+	private static boolean isDense(Vector<?> vec){
+		return vec.numOfElements() == vec.size();
+	}
+
+	static long recordBytes(Vector<?> vec){
+		if(isDense(vec))
+			return RECORD_HEADER_BYTES + 8L * vec.size();
+		long nnz = vec.numOfElements();
+		return RECORD_HEADER_BYTES + 8L * nnz + 4L * (nnz + (nnz & 1));
+	}
+
+	// make room for n more bytes in buf
+	private static void ensure(FileChannel channel, ByteBuffer buf, int n) throws IOException{
+		if(buf.remaining() < n)
+			flush(channel, buf);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buf) throws IOException{
+		buf.flip();
+		while(buf.hasRemaining())
+			channel.write(buf);
+		buf.clear();
+	}
+}
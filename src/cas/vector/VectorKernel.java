@@ -0,0 +1,381 @@
+package cas.vector;
+
+/**
+ * Kernels of VectorOperator for one pair of vector representations (A, B).
+ * Every method defaults to a generic version on VectorCursor / getDouble(), which works for
+ * any pair of vectors of the same size. Subclasses override the methods they can do better
+ * for their representations and are registered in KernelRegistry.
+ *
+ * @author kex, linyang
+ *
+ */
+class VectorKernel<A extends Vector<?>, B extends Vector<?>>{
+
+	// vec1 .* vec2
+	double dot(A vec1, B vec2){
+		return cursorDot(vec1, vec2);
+	}
+
+	// sum of |vec1(i) - vec2(i)|^2
+	double squareDistance(A vec1, B vec2){
+		return cursorSquareDistance(vec1, vec2);
+	}
+
+	// sum of |vec1(i) - vec2(i)|
+	double absDistance(A vec1, B vec2){
+		return cursorAbsDistance(vec1, vec2);
+	}
+
+	// all of the above plus both square norms, one pass
+	void metrics(A vec1, B vec2, VectorMetrics out){
+		cursorMetrics(vec1, vec2, out);
+	}
+
+	/**
+	 * true if every dimension of vec is stored, so that getDouble() is a direct access
+	 * and its cursor visits all indices.
+	 */
+	static boolean isDense(Vector<?> vec){
+		return vec.numOfElements() == vec.size();
+	}
+
+	/**
+	 * scalar product on cursors. if one side is dense, only the stored elements of the
+	 * other side are visited, otherwise the two ordered cursors are merged.
+	 */
+	static double cursorDot(Vector<?> vec1, Vector<?> vec2){
+		if(isDense(vec2)) return gather(vec1, vec2);
+		if(isDense(vec1)) return gather(vec2, vec1);
+
+		double pro = 0.0;
+		VectorCursor cur1 = vec1.cursor();
+		VectorCursor cur2 = vec2.cursor();
+		int i = cur1.nextIndex();
+		int j = cur2.nextIndex();
+		while(i >= 0 && j >= 0){
+			if(i > j)
+				j = cur2.nextIndex();
+			else if(i < j)
+				i = cur1.nextIndex();
+			else{
+				pro += cur1.value() * cur2.value();
+				i = cur1.nextIndex();
+				j = cur2.nextIndex();
+			}
+		}
+		return pro;
+	}
+
+	// sum of value * dVec(index) over the stored elements of sVec
+	private static double gather(Vector<?> sVec, Vector<?> dVec){
+		double pro = 0.0;
+		VectorCursor cur = sVec.cursor();
+		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex())
+			pro += cur.value() * dVec.getDouble(i);
+		return pro;
+	}
+
+	// square error on cursors, the two ordered cursors are merged
+	static double cursorSquareDistance(Vector<?> vec1, Vector<?> vec2){
+		double sum = 0.0;
+		double diff = 0.0;
+		VectorCursor cur1 = vec1.cursor();
+		VectorCursor cur2 = vec2.cursor();
+		int i = cur1.nextIndex();
+		int j = cur2.nextIndex();
+		while(i >= 0 && j >= 0){
+			if(i > j){
+				diff = cur2.value();
+				j = cur2.nextIndex();
+			}
+			else if(i < j){
+				diff = cur1.value();
+				i = cur1.nextIndex();
+			}
+			else{
+				diff = cur1.value() - cur2.value();
+				i = cur1.nextIndex();
+				j = cur2.nextIndex();
+			}
+			sum += diff * diff;
+		}
+		for(; i >= 0; i = cur1.nextIndex()){
+			diff = cur1.value();
+			sum += diff * diff;
+		}
+		for(; j >= 0; j = cur2.nextIndex()){
+			diff = cur2.value();
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	// abs error on cursors, the two ordered cursors are merged
+	static double cursorAbsDistance(Vector<?> vec1, Vector<?> vec2){
+		double sum = 0.0;
+		VectorCursor cur1 = vec1.cursor();
+		VectorCursor cur2 = vec2.cursor();
+		int i = cur1.nextIndex();
+		int j = cur2.nextIndex();
+		while(i >= 0 && j >= 0){
+			if(i > j){
+				sum += Math.abs(cur2.value());
+				j = cur2.nextIndex();
+			}
+			else if(i < j){
+				sum += Math.abs(cur1.value());
+				i = cur1.nextIndex();
+			}
+			else{
+				sum += Math.abs(cur1.value() - cur2.value());
+				i = cur1.nextIndex();
+				j = cur2.nextIndex();
+			}
+		}
+		for(; i >= 0; i = cur1.nextIndex())
+			sum += Math.abs(cur1.value());
+		for(; j >= 0; j = cur2.nextIndex())
+			sum += Math.abs(cur2.value());
+		return sum;
+	}
+
+	// fused metrics on cursors, the two ordered cursors are merged once
+	static void cursorMetrics(Vector<?> vec1, Vector<?> vec2, VectorMetrics out){
+		double dot = 0.0, se = 0.0, ae = 0.0, sn1 = 0.0, sn2 = 0.0;
+		VectorCursor cur1 = vec1.cursor();
+		VectorCursor cur2 = vec2.cursor();
+		int i = cur1.nextIndex();
+		int j = cur2.nextIndex();
+		while(i >= 0 || j >= 0){
+			double v1 = 0.0, v2 = 0.0;
+			if(j < 0 || (i >= 0 && i < j)){
+				v1 = cur1.value();
+				i = cur1.nextIndex();
+			}
+			else if(i < 0 || i > j){
+				v2 = cur2.value();
+				j = cur2.nextIndex();
+			}
+			else{
+				v1 = cur1.value();
+				v2 = cur2.value();
+				i = cur1.nextIndex();
+				j = cur2.nextIndex();
+			}
+			double diff = v1 - v2;
+			dot += v1 * v2;
+			se += diff * diff;
+			ae += Math.abs(diff);
+			sn1 += v1 * v1;
+			sn2 += v2 * v2;
+		}
+		out.set(dot, se, ae, sn1, sn2);
+	}
+
+	/* specialized kernels, registered in KernelRegistry */
+
+	static class DenseDenseKernel extends VectorKernel<DenseVector, DenseVector>{
+		@Override
+		double dot(DenseVector vec1, DenseVector vec2){
+			return DenseKernels.dot(vec1.array(), vec2.array(), vec1.size());
+		}
+
+		@Override
+		double squareDistance(DenseVector vec1, DenseVector vec2){
+			return DenseKernels.squareDistance(vec1.array(), vec2.array(), vec1.size());
+		}
+
+		@Override
+		double absDistance(DenseVector vec1, DenseVector vec2){
+			return DenseKernels.absDistance(vec1.array(), vec2.array(), vec1.size());
+		}
+
+		@Override
+		void metrics(DenseVector vec1, DenseVector vec2, VectorMetrics out){
+			DenseKernels.metrics(vec1.array(), vec2.array(), vec1.size(), out);
+		}
+	}
+
+	/**
+	 * linear merges over the sorted index / value arrays
+	 */
+	static class FrozenFrozenKernel extends VectorKernel<FrozenSparseVector, FrozenSparseVector>{
+		@Override
+		double dot(FrozenSparseVector vec1, FrozenSparseVector vec2){
+			double pro = 0.0;
+			int[] index1 = vec1.indices(), index2 = vec2.indices();
+			double[] value1 = vec1.values(), value2 = vec2.values();
+			int i = 0, j = 0;
+			while(i < index1.length && j < index2.length){
+				if(index1[i] > index2[j])
+					j++;
+				else if(index1[i] < index2[j])
+					i++;
+				else
+					pro += value1[i++] * value2[j++];
+			}
+			return pro;
+		}
+
+		@Override
+		double squareDistance(FrozenSparseVector vec1, FrozenSparseVector vec2){
+			double sum = 0.0;
+			double diff = 0.0;
+			int[] index1 = vec1.indices(), index2 = vec2.indices();
+			double[] value1 = vec1.values(), value2 = vec2.values();
+			int i = 0, j = 0;
+			while(i < index1.length && j < index2.length){
+				if(index1[i] > index2[j])
+					diff = value2[j++];
+				else if(index1[i] < index2[j])
+					diff = value1[i++];
+				else
+					diff = value1[i++] - value2[j++];
+				sum += diff * diff;
+			}
+			for(; i < index1.length; i++)
+				sum += value1[i] * value1[i];
+			for(; j < index2.length; j++)
+				sum += value2[j] * value2[j];
+			return sum;
+		}
+
+		@Override
+		double absDistance(FrozenSparseVector vec1, FrozenSparseVector vec2){
+			double sum = 0.0;
+			int[] index1 = vec1.indices(), index2 = vec2.indices();
+			double[] value1 = vec1.values(), value2 = vec2.values();
+			int i = 0, j = 0;
+			while(i < index1.length && j < index2.length){
+				if(index1[i] > index2[j])
+					sum += Math.abs(value2[j++]);
+				else if(index1[i] < index2[j])
+					sum += Math.abs(value1[i++]);
+				else
+					sum += Math.abs(value1[i++] - value2[j++]);
+			}
+			for(; i < index1.length; i++)
+				sum += Math.abs(value1[i]);
+			for(; j < index2.length; j++)
+				sum += Math.abs(value2[j]);
+			return sum;
+		}
+	}
+
+	/**
+	 * sparse arrays against a dense array. distances walk the gaps between stored indices directly.
+	 */
+	static class FrozenDenseKernel extends VectorKernel<FrozenSparseVector, DenseVector>{
+		@Override
+		double dot(FrozenSparseVector sVec, DenseVector dVec){
+			double pro = 0.0;
+			int[] index = sVec.indices();
+			double[] value = sVec.values();
+			double[] dense = dVec.array();
+			for(int k = 0; k < index.length; k++)
+				pro += value[k] * dense[index[k]];
+			return pro;
+		}
+
+		@Override
+		double squareDistance(FrozenSparseVector sVec, DenseVector dVec){
+			int[] index = sVec.indices();
+			double[] value = sVec.values();
+			double[] dense = dVec.array();
+			double sum = 0.0;
+			int from = 0;
+			for(int k = 0; k < index.length; k++){
+				sum += DenseKernels.dot(dense, dense, from, index[k]);
+				double diff = value[k] - dense[index[k]];
+				sum += diff * diff;
+				from = index[k] + 1;
+			}
+			return sum + DenseKernels.dot(dense, dense, from, dVec.size());
+		}
+
+		@Override
+		double absDistance(FrozenSparseVector sVec, DenseVector dVec){
+			int[] index = sVec.indices();
+			double[] value = sVec.values();
+			double[] dense = dVec.array();
+			double sum = 0.0;
+			int from = 0;
+			for(int k = 0; k < index.length; k++){
+				for(int i = from; i < index[k]; i++)
+					sum += Math.abs(dense[i]);
+				sum += Math.abs(value[k] - dense[index[k]]);
+				from = index[k] + 1;
+			}
+			for(int i = from; i < dVec.size(); i++)
+				sum += Math.abs(dense[i]);
+			return sum;
+		}
+	}
+
+	/**
+	 * SparseVector operands are replaced by their cached FrozenSparseVector snapshot, then the
+	 * kernel registered for the frozen pair does the work.
+	 */
+	static class FreezingKernel extends VectorKernel<Vector<?>, Vector<?>>{
+		private static Vector<?> freeze(Vector<?> vec){
+			return vec instanceof SparseVector ? ((SparseVector) vec).freeze() : vec;
+		}
+
+		@Override
+		double dot(Vector<?> vec1, Vector<?> vec2){
+			Vector<?> f1 = freeze(vec1), f2 = freeze(vec2);
+			return KernelRegistry.kernel(f1, f2).dot(f1, f2);
+		}
+
+		@Override
+		double squareDistance(Vector<?> vec1, Vector<?> vec2){
+			Vector<?> f1 = freeze(vec1), f2 = freeze(vec2);
+			return KernelRegistry.kernel(f1, f2).squareDistance(f1, f2);
+		}
+
+		@Override
+		double absDistance(Vector<?> vec1, Vector<?> vec2){
+			Vector<?> f1 = freeze(vec1), f2 = freeze(vec2);
+			return KernelRegistry.kernel(f1, f2).absDistance(f1, f2);
+		}
+
+		@Override
+		void metrics(Vector<?> vec1, Vector<?> vec2, VectorMetrics out){
+			Vector<?> f1 = freeze(vec1), f2 = freeze(vec2);
+			KernelRegistry.kernel(f1, f2).metrics(f1, f2, out);
+		}
+	}
+
+	/**
+	 * (B, A) view of a kernel registered for (A, B). all measures are symmetric except the
+	 * order of the two norms in metrics().
+	 */
+	static class SwappedKernel<A extends Vector<?>, B extends Vector<?>> extends VectorKernel<B, A>{
+		private final VectorKernel<A, B> kernel;
+
+		SwappedKernel(VectorKernel<A, B> kernel){
+			this.kernel = kernel;
+		}
+
+		@Override
+		double dot(B vec1, A vec2){
+			return kernel.dot(vec2, vec1);
+		}
+
+		@Override
+		double squareDistance(B vec1, A vec2){
+			return kernel.squareDistance(vec2, vec1);
+		}
+
+		@Override
+		double absDistance(B vec1, A vec2){
+			return kernel.absDistance(vec2, vec1);
+		}
+
+		@Override
+		void metrics(B vec1, A vec2, VectorMetrics out){
+			kernel.metrics(vec2, vec1, out);
+			out.set(out.getScalarProduct(), out.getSquareError(), out.getAbsError(), out.getSquareNorm2(), out.getSquareNorm1());
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package cas.vector;
+
+/**
+ * Reusable result holder for VectorOperator.metrics(): all pairwise measures of two vectors
+ * that can be collected in one merge pass. Pass the same instance to every call to avoid
+ * creating objects in loops.
+ * @author kex, linyang
+ *
+ */
+public class VectorMetrics{
+	private double scalarProduct;  // vec1 .* vec2
+	private double squareError;    // sum of |vec1(i) - vec2(i)|^2
+	private double absError;       // sum of |vec1(i) - vec2(i)|
+	private double squareNorm1;    // vec1 .* vec1
+	private double squareNorm2;    // vec2 .* vec2
+	
+	public VectorMetrics(){
+		
+	}
+	
+	void set(double scalarProduct, double squareError, double absError, double squareNorm1, double squareNorm2){
+		this.scalarProduct = scalarProduct;
+		this.squareError = squareError;
+		this.absError = absError;
+		this.squareNorm1 = squareNorm1;
+		this.squareNorm2 = squareNorm2;
+	}
+	
+	public double getScalarProduct(){
+		return this.scalarProduct;
+	}
+	public double getSquareError(){
+		return this.squareError;
+	}
+	public double getAbsError(){
+		return this.absError;
+	}
+	public double getSquareNorm1(){
+		return this.squareNorm1;
+	}
+	public double getSquareNorm2(){
+		return this.squareNorm2;
+	}
+	
+	/**
+	 * @return the cosine of the angle between the two vectors, 0.0 if either of them is all zeros
+	 */
+	public double getCosine(){
+		double denominator = Math.sqrt(this.squareNorm1 * this.squareNorm2);
+		return denominator == 0.0 ? 0.0 : this.scalarProduct / denominator;
+	}
+	
+	public void print(){
+		System.out.println(scalarProduct + " " + squareError + " " + absError + " " + squareNorm1 + " " + squareNorm2);
+	}
+}
@@ -2,6 +2,8 @@ package cas.vector;
 
 import java.util.*;
 
+import cas.SampleSet;
+
 
 /**
  * This class integrates common vector operations. 
@@ -13,8 +15,7 @@ import java.util.*;
  * @author kex, linyang
  *
  */
-class VectorOperator{
-	//TODO  refactor with common base Vector 
+public class VectorOperator{
 	//scalar product for one sparse vector
 	/**
 	 * a constant defined to be equal to zero.
@@ -27,138 +28,25 @@ class VectorOperator{
 	 * @param vec2 belongs to class Vector or the subclasses of Vector
 	 * @return Double or null
 	 */
-	public static Double scalarProduct(Vector vec1, Vector vec2)
+	public static Double scalarProduct(Vector<?> vec1, Vector<?> vec2)
 	{
 		if(vec1 == null || vec2 == null) return null;
-		Double pro = 0.0;
-		if(vec1 instanceof SparseVector && vec2 instanceof SparseVector)
-		{
-			return scalarProduct((SparseVector) vec1, (SparseVector) vec2);
-		}
-		else if(vec1 instanceof SparseVector && vec2 instanceof DenseVector)
-		{
-			return scalarProduct((SparseVector) vec1, (DenseVector) vec2);
-		}
-		else if(vec1 instanceof DenseVector && vec2 instanceof SparseVector)
-		{
-			return scalarProduct((DenseVector) vec1, (SparseVector) vec2);
-		}
-		else
-		{
-			return scalarProduct((DenseVector) vec1, (DenseVector) vec2);
-		}
-	}
-	/**
-	 * return the scalar product of a DenseVector and a SparseVector
-	 * 
-	 * @param dVec a DenseVector
-	 * @param sVec a SparseVector
-	 * @return Double
-	 */
-	private static Double scalarProduct(DenseVector dVec, SparseVector sVec){
-		double pro = 0.0;
-		
-		Iterator<Pair<Integer, Double>> siter = sVec.iterator();
-		while(siter.hasNext()){
-			Pair<Integer, Double> pair = siter.next();
-			pro += dVec.get(pair.getKey()) * pair.getValue();
-		}		
-		return pro;
-	}
-	/**
-	 * return the scalar product of a SparseVector and a DenseVector
-	 * 
-	 * @param sVec a DenseVector
-	 * @param dVec a SparseVector
-	 * @return
-	 */
-	private static Double scalarProduct(SparseVector sVec,DenseVector dVec)
-	{
-		double pro = 0.0;		
-		Iterator<Pair<Integer, Double>> siter = sVec.iterator();
-		while(siter.hasNext()){
-			Pair<Integer, Double> pair = siter.next();
-			pro += dVec.get(pair.getKey()) * pair.getValue();
-		}		
-		return pro;	  
+		if(vec1.size() != vec2.size()) return null;
+		return dot(vec1, vec2);
 	}
 	/**
-	 *  return the scalar product of a DenseVector and a DenseVector
+	 * scalar product, computed by the kernel registered for the classes of vec1 and vec2.
 	 * 
-	 * @param dVec a DenseVector
-	 * @param dVec1 a DenseVector
-	 * @return Double
-	 */
-	private static Double scalarProduct(DenseVector dVec,DenseVector dVec1)
-	{
-		if(dVec.size() != dVec1.size()) return null;
-		double pro = 0.0;		
-		Iterator<Double> iterator = dVec.iterator();
-		Iterator<Double> iterator1 = dVec1.iterator();
-		
-		while(iterator.hasNext() && iterator1.hasNext())
-		{
-			pro += iterator.next() * iterator1.next();
-		}
-		return pro;	  
-	}
-	/**
-	 * return the scalar product of a SparseVector and a SparseVector
-	 * 
-	 * @param sVec1 SparseVector
-	 * @param sVec2 SparseVector
-	 * @return
+	 * @param vec1
+	 * @param vec2 same size as vec1
+	 * @return vec1 .* vec2
 	 */
-	private static Double scalarProduct(SparseVector sVec1, SparseVector sVec2)
+	static double dot(Vector<?> vec1, Vector<?> vec2)
 	{
-		if(sVec1.length() != sVec2.length()) return null;
-		Double pro = 0.0;
-		if(sVec1.size() == 0 || sVec2.size() == 0) return pro;
-		Iterator<Pair<Integer, Double>> iter1 = sVec1.iterator();
-		Iterator<Pair<Integer, Double>> iter2 = sVec2.iterator();
-		
-		Pair<Integer, Double> pair1, pair2;
-		pair1 = iter1.next();
-		pair2 = iter2.next();
-		boolean getPair1Next = false;
-		boolean getPair2Next = false;
-		while(true)
-		{
-			if(getPair1Next)
-			{
-				if(iter1.hasNext())
-					pair1 = iter1.next();
-				else
-					break;
-			}
-			if(getPair2Next)
-			{
-				if(iter2.hasNext())
-					pair2 = iter2.next();
-				else
-					break;
-			}
-			if( pair1.getKey() > pair2.getKey())
-			{
-				 getPair1Next = false;
-				 getPair2Next = true;
-			}
-			else if(pair1.getKey() < pair2.getKey())
-			{
-				 getPair1Next = true;
-				 getPair2Next = false;
-			}
-			else
-			{
-				pro += pair1.getValue() * pair2.getValue();
-				getPair1Next = true;
-				getPair2Next = true;
-			}		
-		}
-		return pro;
+		return KernelRegistry.kernel(vec1, vec2).dot(vec1, vec2);
 	}
 	/**
-	 * generate a SparseVector from a given DenseVector
+	 * generate a DenseVector from a given SparseVector
 	 * 
 	 * @param sVec SparseVector
 	 * @param size the size of the DenseVector
@@ -166,120 +54,65 @@ class VectorOperator{
 	 */
 	public static DenseVector sparse2Dense(SparseVector sVec, int size){
 		if(sVec == null) return null;
-		DenseVector vec = new DenseVector();
-		Iterator<Pair<Integer, Double>> iter = sVec.iterator();
-		
-		Pair<Integer, Double> pair = iter.next();
-		for(int i = 0; i < size; i ++){
-			if(pair != null && i == pair.getKey()){
-				vec.add(pair.getValue());
-				if(iter.hasNext())
-					pair = iter.next();
-			}else{
-				vec.add(0.0);
-			}
-		}
+		DenseVector vec = new DenseVector(size);
+		VectorCursor cur = sVec.cursor();
+		for(int i = cur.nextIndex(); i >= 0 && i < size; i = cur.nextIndex())
+			vec.setDouble(i, cur.value());
 		
 		return vec;
 	}
 	/**
 	 * generate a sparseVector from a given denseVector
 	 * 
-	 * @param dVec a SparseVector
+	 * @param dVec a DenseVector
 	 * @return a SparseVector
 	 */
 	public static SparseVector dense2Sparse(DenseVector dVec)
 	{
 		if(dVec == null) return null;
 		SparseVector sVec = new SparseVector(dVec.size());
-		int index = 0;
-		for(int i = 0; i < dVec.size(); i ++)
+		VectorCursor cur = dVec.cursor();
+		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex())
 		{
-			if(dVec.get(i) > ROUND_TO_ZERO)
-			{
-				Pair<Integer,Double> pair = new Pair<Integer,Double>(index,dVec.get(i));
-				sVec.add(pair);
-				index++;
-			}
+			double value = cur.value();
+			if(Math.abs(value) > ROUND_TO_ZERO)
+				sVec.set(i, value);
 		}
 		return sVec;
 	}
 	
 	// inVec .* number => outVec.  inVec and outVec must have the same length
 	/**
+	 * outVec is cleared and then saves all results multiplied on the inVec with a double number.
+	 * results that round to zero are not stored.
 	 * 
 	 * @param inVec
 	 * @param number
 	 * @param outVec
 	 */
-	public static void multiplyNumber(Vector inVec, Double number, SparseVector outVec)
+	public static void multiplyNumber(Vector<?> inVec, Double number, SparseVector outVec)
 	{
 		if(inVec == null || outVec == null) 
 		{
 			System.out.println("null vector error");
 			return;
 		}
-		if(inVec instanceof SparseVector)
-			multiplyNumber((SparseVector)inVec, number, outVec);
-		else if(inVec instanceof DenseVector)
-			multiplyNumber((DenseVector)inVec, number, outVec);
-		else{
-			System.out.println("inVec has the wrong type!");
-		}
-	}
-	/**
-	 * outVec is cleared and then saves all results multiplied on the inVec with a double number.
-	 * 
-	 * @param inVec a sparse Vector
-	 * @param number
-	 * @param outVec a sparse Vector
-	 */
-	private static void multiplyNumber(SparseVector inVec, Double number, SparseVector outVec){
-		if(inVec.length() != outVec.length())
+		if(inVec.size() != outVec.size())
 		{
 			System.out.println("length must match");
 			return;
 		}
 		outVec.clear();
-		Iterator<Pair<Integer, Double>> inIter = inVec.iterator();
-		// have question here
-		while(inIter.hasNext()){
-			Pair<Integer, Double> pair = inIter.next();
-			outVec.add(new Pair<Integer,Double>(pair.getKey(), pair.getValue() * number));
-		}
-	}
-	
-	//write javadoc
-	/**
-	 * multiply a number on the elements of the densevector, and then put them in outVec in order.
-	 * 
-	 * @param inVec
-	 * @param number
-	 * @param outVec
-	 */
-	private static void multiplyNumber(DenseVector inVec, Double number, SparseVector outVec)
-	{
-		if(inVec.size() != outVec.length())
-		{
-			System.out.println("Length must match");
-			return;
-		}
-		outVec.clear();
-		int index = 0;
-		for(int i = 0; i < inVec.size(); i ++)
+		double n = number;
+		VectorCursor cur = inVec.cursor();
+		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex())
 		{
-			// add in defined non-zero numbers to sparseVector
-			double temp = inVec.get(i)* number;
-			if(temp > ROUND_TO_ZERO)
-			{
-				Pair<Integer,Double> pair = new Pair<Integer,Double>(index,temp);
-				outVec.add(pair);
-				index++;
-			}			
-			
+			double temp = cur.value() * n;
+			if(Math.abs(temp) > ROUND_TO_ZERO)
+				outVec.set(i, temp);
 		}
-		
 	}
+	// inVec .* number => outVec.  inVec and outVec must have the same length
 	/**
 	 * multiply a number on every element of the inVec and then put it in the outVec in order.
 	 * 
@@ -287,73 +120,21 @@ class VectorOperator{
 	 * @param number
 	 * @param outVec
 	 */
-	public static void multiplyNumber(Vector inVec, Double number, DenseVector outVec){
+	public static void multiplyNumber(Vector<?> inVec, Double number, DenseVector outVec){
 		if(inVec == null || outVec == null)
 		{
 			System.out.println("Null vector error");
 			return;
 		}
-		if(inVec instanceof SparseVector)
-			multiplyNumber((SparseVector)inVec, number, outVec);
-		else if(inVec instanceof DenseVector)
-			multiplyNumber((DenseVector)inVec, number, outVec);
-		else{
-			System.out.println("inVec has the wrong type!");
-		}
-	}
-	
-	// inVec .* number => outVec.  inVec and outVec must have the same length
-	//tested
-	/**
-	 * multiply a number on every element of the inVec and then put it in the outVec in order.
-	 * @param inVec
-	 * @param number
-	 * @param outVec
-	 */
-	private static void multiplyNumber(SparseVector inVec, Double number, DenseVector outVec){
-		if(inVec.length() != outVec.size())
+		if(inVec.size() != outVec.size())
 		{
-			System.out.println("length must match");
-			return;
-		}
-		Iterator<Pair<Integer, Double>> inIter = inVec.iterator();
-		Pair<Integer, Double> pair = null;
-		
-		if(inIter.hasNext())
-			pair = inIter.next();
-		
-		int size = outVec.size();
-		for(int i = 0; i < size; i++){
-			if(pair != null && pair.getKey() == i){
-				outVec.set(i, pair.getValue() * number);
-				if(inIter.hasNext())
-					pair = inIter.next();
-			}
-			else
-				outVec.set(i, 0.0);
-		}
-	}
-	//tested
-	/**
-	 * multiply a number on every element of the inVec and then put it in the outVec in order.
-	 * 
-	 * @param inVec
-	 * @param number
-	 * @param outVec
-	 */
-	private static void multiplyNumber(DenseVector inVec, Double number, DenseVector outVec){
-		if(inVec.size() != outVec.size()){
 			System.out.println("Length must match!");
 			return;
 		}
-		
-		int size = inVec.size();
-		for(int i = 0; i < size; i++)
-			outVec.set(i, inVec.get(i) * number);
+		KernelRegistry.kernel(inVec).scale(inVec, number, outVec);
 	}
 	
 	// return a seperate copy of vec
-	//tested
 	/**
 	 * return another copy of the input sparse vector, the two vectors are independent.
 	 * 
@@ -367,12 +148,10 @@ class VectorOperator{
 			System.out.println("null vector");
 			return null;
 		}
-		SparseVector nvec = new SparseVector(vec.length());
-		Iterator<Pair<Integer,Double>> iterator = nvec.iterator();
-		while(iterator.hasNext())
-		{
-			nvec.add(iterator.next());
-		}
+		SparseVector nvec = new SparseVector(vec.size(), vec.storage());
+		VectorCursor cur = vec.cursor();
+		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex())
+			nvec.set(i, cur.value());
 		return nvec;
 	}
 	/**
@@ -387,14 +166,8 @@ class VectorOperator{
 			System.out.println("null vector");
 			return null;
 		}
-		DenseVector nvec = new DenseVector();
-		Iterator<Double> iter = vec.iterator();
-		
-		while(iter.hasNext()){
-			Double val = iter.next();  
-			nvec.add(val);  
-		}
-		
+		DenseVector nvec = new DenseVector(vec.size());
+		nvec.setVector(vec);
 		return nvec;
 	}
 	/**
@@ -403,197 +176,31 @@ class VectorOperator{
 	 * @param vec2
 	 * @return
 	 */
-	public static Double squareError(Vector vec1, Vector vec2)
+	public static Double squareError(Vector<?> vec1, Vector<?> vec2)
 	{
 		if(vec1 == null || vec2 == null) 
 		{
 			System.out.println("null vector");
 			return null;
 		}
-		
-		if(vec1 instanceof SparseVector && vec2 instanceof SparseVector)
-		{
-			return squareError((SparseVector) vec1, (SparseVector) vec2);
-		}
-		else if(vec1 instanceof SparseVector && vec2 instanceof DenseVector)
-		{
-			return squareError((SparseVector) vec1, (DenseVector) vec2);
-		}
-		else if(vec1 instanceof DenseVector && vec2 instanceof SparseVector)
-		{
-			return squareError((SparseVector) vec2,(DenseVector) vec1);
-		}
-		else if(vec1 instanceof DenseVector && vec2 instanceof DenseVector)
-		{
-			return squareError((DenseVector) vec1, (DenseVector) vec2);
-		}
-		else
-		{
-			System.out.println("the wrong input type");
-			return null;
-		}
-		
-	}
-	// return sum of |w1(i) - w2(i)|^2 for each dimension i
-	//tested
-	/**
-	 *  return the square error of two DenseVectors.
-	 * @param vec1
-	 * @param vec2
-	 * @return
-	 */
-	private static Double squareError(DenseVector vec1, DenseVector vec2){
-		if(vec1.size() != vec2.size()){
-			System.out.println("Length must match!");
-			return null;
-		}
-		
-		double sum = 0.0;
-		int size = vec1.size();
-		for(int i = 0; i < size; i++){
-			double diff = Math.abs(vec1.get(i) - vec2.get(i));
-			sum += diff * diff;
-		}
-		return sum;
-	}
-	//me
-	/**
-	 * return the square error of the same sized DenseVector and SparseVector.
-	 * @param sVec
-	 * @param dVec
-	 * @return
-	 */
-	private static Double squareError(SparseVector sVec, DenseVector dVec)
-	{
-		if(dVec.size() != sVec.length()) 
+		if(vec1.size() != vec2.size())
 		{
 			System.out.println("Length must match!");
 			return null;
 		}
-		double sum = 0.0;
-		double diff = 0.0;
-		int startIndex = 0;
-		Iterator<Pair<Integer,Double>> iterator = sVec.iterator();
-		while(iterator.hasNext())
-		{
-			Pair<Integer,Double> pair = iterator.next();
-			int index = pair.getKey();
-			if(index >= dVec.size())
-			{
-				System.out.println("The index is out of range!");
-				return null;
-			}
-			for(int i  = startIndex; i < index; i ++)
-			{
-				diff = dVec.get(i);
-				sum += diff * diff;
-			}
-
-			diff = pair.getValue() - dVec.get(index);
-			sum += diff * diff;
-			startIndex = index + 1;
-		}
-		for(int i = startIndex; i < dVec.size(); i ++)
-		{
-			diff = dVec.get(i);
-			sum += diff * diff;
-		}
-		return sum;		
+		return squareDistance(vec1, vec2);
 	}
-	//start from here
 	/**
-	 * return the square error of two SparseVectors
+	 * square error, computed by the kernel registered for the classes of vec1 and vec2.
+	 * 
 	 * @param vec1
-	 * @param vec2
-	 * @return
+	 * @param vec2 same size as vec1
+	 * @return sum of |vec1(i) - vec2(i)|^2
 	 */
-	private static Double squareError(SparseVector vec1, SparseVector vec2)
+	static double squareDistance(Vector<?> vec1, Vector<?> vec2)
 	{
-		if(vec1.length() != vec2.length()) 
-		{
-			System.out.println("Length must match!");
-			return null;
-		}
-		double sum = 0.0;
-		double diff = 0.0;
-		
-		Iterator<Pair<Integer, Double>> iter1 = vec1.iterator();
-		Iterator<Pair<Integer, Double>> iter2 = vec2.iterator();
-	
-		if(vec1.size() == 0) 
-		{
-			while(iter2.hasNext())
-			{
-				diff = iter2.next().getValue();
-				sum += diff * diff;
-			}
-			return sum;
-		}
-		if(vec2.size() == 0)
-		{
-			while(iter1.hasNext())
-			{
-				diff = iter1.next().getValue();
-				sum += diff * diff;
-			}
-			return sum;
-		}
-		
-		
-		Pair<Integer, Double> pair1, pair2;
-		pair1 = iter1.next();
-		pair2 = iter2.next();
-		while(true)
-		{
-			if(pair1.getKey() > pair2.getKey())
-			{
-				diff = pair2.getValue();
-				sum += diff * diff;
-				if(iter2.hasNext()) pair2 = iter2.next();
-				else 
-				{
-					diff = pair1.getValue();
-					sum += diff * diff;
-					break;
-				}
-			}
-			else if(pair1.getKey() < pair2.getKey())
-			{
-				diff = pair1.getValue();
-				sum += diff * diff;
-				if(iter1.hasNext()) pair1 = iter1.next();
-				else 
-				{
-					diff = pair2.getValue();
-					sum += diff * diff;
-					break;
-				}
-			}
-			else
-			{
-				diff = pair1.getValue() - pair2.getValue();
-				sum += diff * diff;
-				if(!iter1.hasNext() || !iter2.hasNext())
-				{
-					break;
-				}
-				pair1 = iter1.next();
-				pair2 = iter2.next();
-			}
-		}
-		while(iter1.hasNext())
-		{
-			diff = iter1.next().getValue();
-			sum += diff * diff;
-		}
-		while(iter2.hasNext())
-		{
-			diff = iter2.next().getValue();
-			sum += diff * diff;
-		}		
-		return sum;
+		return KernelRegistry.kernel(vec1, vec2).squareDistance(vec1, vec2);
 	}
-	
 	// test function for square error tested
 	private static void testSquareError()
 	{
@@ -614,7 +221,7 @@ class VectorOperator{
 			double d = r.nextDouble();
 			if(temp == 1)
 			{
-				sparseVector.add(new Pair<Integer,Double>(i,d));
+				sparseVector.set(i, d);
 				array[i] = d;
 			}
 		}
@@ -625,7 +232,7 @@ class VectorOperator{
 			double d = r.nextDouble();
 			if(temp == 1)
 			{
-				sparseVector1.add(new Pair<Integer,Double>(i,d));
+				sparseVector1.set(i, d);
 				array1[i] = d;
 			}
 		}
@@ -694,196 +301,153 @@ class VectorOperator{
 		}
 	}
 	
-	// return sum of |w1(i) - w2(i)| for each dimension i //tested
 	/**
-	 * return the sum of the absolute value of (vec1 - vec2)
+	 * compute scalar product, square error, abs error and the square norms of both vectors in a
+	 * single pass, instead of one pass (and for sparse vectors one merge) per measure.
+	 * 
 	 * @param vec1
 	 * @param vec2
-	 * @return
+	 * @param out the holder that receives the results, may be reused across calls
+	 * @return out, or null if the vectors are not valid
 	 */
-	public static Double absError(Vector vec1, Vector vec2)
+	public static VectorMetrics metrics(Vector<?> vec1, Vector<?> vec2, VectorMetrics out)
 	{
-		if(vec1 == null || vec2 == null) return null;
-		
-		if(vec1 instanceof SparseVector && vec2 instanceof SparseVector)
-		{
-			return  absError((SparseVector) vec1, (SparseVector) vec2);
-		}
-		else if(vec1 instanceof SparseVector && vec2 instanceof DenseVector)
-		{
-			return  absError((SparseVector) vec1, (DenseVector) vec2);
-		}
-		else if(vec1 instanceof DenseVector && vec2 instanceof SparseVector)
+		if(vec1 == null || vec2 == null || out == null) 
 		{
-			return  absError((SparseVector) vec2,(DenseVector) vec1);
-		}
-		else if(vec1 instanceof DenseVector && vec2 instanceof DenseVector)
-		{
-			return  absError((DenseVector) vec1, (DenseVector) vec2);
+			System.out.println("null vector");
+			return null;
 		}
-		else
+		if(vec1.size() != vec2.size())
 		{
-			System.out.println("the wrong input type.");
+			System.out.println("Length must match!");
 			return null;
 		}
+		KernelRegistry.kernel(vec1, vec2).metrics(vec1, vec2, out);
+		return out;
 	}
-	// return sum of |w1(i) - w2(i)| for each dimension i
+	
 	/**
-	 * return sum of |w1(i) - w2(i)| for each dimension i
-	 * @param vec1
-	 * @param vec2
-	 * @return
+	 * batch version of scalarProduct(): out[r] = vec .* vecs[r] for every r.
+	 * dense rows are processed in cache-sized blocks, large batches are split across cores.
+	 * 
+	 * @param vec
+	 * @param vecs vectors of the same size as vec
+	 * @param out receives the scores, at least vecs.length long
 	 */
-	private static Double absError(DenseVector vec1, DenseVector vec2){
-		if(vec1 == null || vec2 == null)
-			return null;
-		if(vec1.size() != vec2.size()){
-			System.out.println("Length must match!");
-			return null;
-		}
-		
-		double sum = 0.0;
-		int size = vec1.size();
-		for(int i = 0; i < size; i++){
-			sum += Math.abs(vec1.get(i) - vec2.get(i));
-		}
-		return sum;
+	public static void scalarProducts(Vector<?> vec, Vector<?>[] vecs, double[] out)
+	{
+		if(checkBatch(vec, vecs, out))
+			BatchKernels.score(vec, vecs, vecs.length, out, BatchKernels.SCALAR_PRODUCT);
 	}
 	/**
-	 * return sum of |w1(i) - w2(i)| for each dimension i
-	 * @param sVec
-	 * @param dVec
-	 * @return
+	 * scalarProducts() against every sample of a SampleSet, out[r] = vec .* samples.get(r)
 	 */
-	private static Double absError(SparseVector sVec, DenseVector dVec)
+	public static <V extends Vector<?>> void scalarProducts(Vector<?> vec, SampleSet<V> samples, double[] out)
 	{
-		if(sVec == null || dVec == null)
-			return null;
-		if(sVec.length() != dVec.size()){
-			System.out.println("Length must match!");
-			return null;
+		if(samples != null)
+			scalarProducts(vec, toArray(samples), out);
+	}
+	/**
+	 * batch version of squareError(): out[r] = sum of |vec(i) - vecs[r](i)|^2 for every r.
+	 * dense rows are processed in cache-sized blocks, large batches are split across cores.
+	 * 
+	 * @param vec
+	 * @param vecs vectors of the same size as vec
+	 * @param out receives the distances, at least vecs.length long
+	 */
+	public static void squareErrors(Vector<?> vec, Vector<?>[] vecs, double[] out)
+	{
+		if(checkBatch(vec, vecs, out))
+			BatchKernels.score(vec, vecs, vecs.length, out, BatchKernels.SQUARE_ERROR);
+	}
+	/**
+	 * squareErrors() against every sample of a SampleSet
+	 */
+	public static <V extends Vector<?>> void squareErrors(Vector<?> vec, SampleSet<V> samples, double[] out)
+	{
+		if(samples != null)
+			squareErrors(vec, toArray(samples), out);
+	}
+	/**
+	 * batch version of absError(): out[r] = sum of |vec(i) - vecs[r](i)| for every r.
+	 * dense rows are processed in cache-sized blocks, large batches are split across cores.
+	 * 
+	 * @param vec
+	 * @param vecs vectors of the same size as vec
+	 * @param out receives the distances, at least vecs.length long
+	 */
+	public static void absErrors(Vector<?> vec, Vector<?>[] vecs, double[] out)
+	{
+		if(checkBatch(vec, vecs, out))
+			BatchKernels.score(vec, vecs, vecs.length, out, BatchKernels.ABS_ERROR);
+	}
+	/**
+	 * absErrors() against every sample of a SampleSet
+	 */
+	public static <V extends Vector<?>> void absErrors(Vector<?> vec, SampleSet<V> samples, double[] out)
+	{
+		if(samples != null)
+			absErrors(vec, toArray(samples), out);
+	}
+	
+	private static <V extends Vector<?>> Vector<?>[] toArray(SampleSet<V> samples)
+	{
+		Vector<?>[] vecs = new Vector<?>[samples.size()];
+		for(int i = 0; i < vecs.length; i ++)
+			vecs[i] = samples.get(i);
+		return vecs;
+	}
+	
+	private static boolean checkBatch(Vector<?> vec, Vector<?>[] vecs, double[] out)
+	{
+		if(vec == null || vecs == null || out == null)
+		{
+			System.out.println("null vector");
+			return false;
 		}
-		
-		double sum = 0.0;
-		double diff = 0.0;
-		int startIndex = 0;
-		Iterator<Pair<Integer,Double>> iterator = sVec.iterator();
-		while(iterator.hasNext())
+		if(out.length < vecs.length)
 		{
-			Pair<Integer,Double> pair = iterator.next();
-			int index = pair.getKey();
-			if(index >= dVec.size())
-			{
-				System.out.println("The index is out of range!");
-				return null;
-			}
-			for(int i  = startIndex; i < index; i ++)
-			{
-				diff = dVec.get(i);
-				sum += Math.abs(diff);
-			}
-
-			diff = Math.abs(pair.getValue() - dVec.get(index));
-			sum += diff;
-			startIndex = index + 1;
+			System.out.println("out is too short!");
+			return false;
 		}
-		for(int i = startIndex; i < dVec.size(); i ++)
+		for(int i = 0; i < vecs.length; i ++)
 		{
-			diff = Math.abs(dVec.get(i));
-			sum += diff ;
+			if(vecs[i] == null || vecs[i].size() != vec.size())
+			{
+				System.out.println("Length must match!");
+				return false;
+			}
 		}
-		return sum;		
+		return true;
 	}
+	
+	// return sum of |w1(i) - w2(i)| for each dimension i //tested
 	/**
-	 *  return sum of |w1(i) - w2(i)| for each dimension i
+	 * return the sum of the absolute value of (vec1 - vec2)
 	 * @param vec1
 	 * @param vec2
 	 * @return
 	 */
-	private static Double absError(SparseVector vec1, SparseVector vec2)
+	public static Double absError(Vector<?> vec1, Vector<?> vec2)
 	{
-		if(vec1.length() != vec2.length()) 
+		if(vec1 == null || vec2 == null) return null;
+		if(vec1.size() != vec2.size())
 		{
 			System.out.println("Length must match!");
 			return null;
 		}
-		double sum = 0.0;
-		double diff = 0.0;
-		
-		Iterator<Pair<Integer, Double>> iter1 = vec1.iterator();
-		Iterator<Pair<Integer, Double>> iter2 = vec2.iterator();
-		
-		if(vec1.size() == 0 )
-		{
-			while(iter2.hasNext())
-			{
-				sum += Math.abs(iter2.next().getValue());
-			}
-			return sum;
-		}
-		
-		if(vec2.size() == 0)
-		{
-			while(iter1.hasNext())
-			{
-				sum += Math.abs(iter1.next().getValue());
-			}
-			return sum;
-			
-		}
-		
-		Pair<Integer, Double> pair1, pair2;
-		pair1 = iter1.next();
-		pair2 = iter2.next();
-		while(true)
-		{
-			if(pair1.getKey() > pair2.getKey())
-			{
-				diff = Math.abs(pair2.getValue());
-				sum += diff;
-				if(iter2.hasNext()) pair2 = iter2.next();
-				else 
-				{
-					diff = Math.abs(pair1.getValue());
-					sum += diff;
-					break;
-				}
-			}
-			else if(pair1.getKey() < pair2.getKey())
-			{
-				diff = Math.abs(pair1.getValue());
-				sum += diff;
-				if(iter1.hasNext()) pair1 = iter1.next();
-				else 
-				{
-					diff = Math.abs(pair2.getValue());
-					sum += diff;
-					break;
-				}
-			}
-			else
-			{
-				diff = Math.abs(pair1.getValue() - pair2.getValue());
-				sum += diff ;
-				if(!iter1.hasNext() || !iter2.hasNext())
-				{
-					break;
-				}
-				pair1 = iter1.next();
-				pair2 = iter2.next();
-			}
-		}
-		while(iter1.hasNext())
-		{
-			diff = Math.abs(iter1.next().getValue());
-			sum += diff;
-		}
-		while(iter2.hasNext())
-		{
-			diff = Math.abs(iter2.next().getValue());
-			sum += diff;
-		}		
-		return sum;
+		return absDistance(vec1, vec2);
+	}
+	/**
+	 * abs error, computed by the kernel registered for the classes of vec1 and vec2.
+	 * 
+	 * @param vec1
+	 * @param vec2 same size as vec1
+	 * @return sum of |vec1(i) - vec2(i)|
+	 */
+	static double absDistance(Vector<?> vec1, Vector<?> vec2)
+	{
+		return KernelRegistry.kernel(vec1, vec2).absDistance(vec1, vec2);
 	}
 	//test function
 	private static void testAbsError()
@@ -905,7 +469,7 @@ class VectorOperator{
 			double d = r.nextDouble();
 			if(temp == 1)
 			{
-				sparseVector.add(new Pair<Integer,Double>(i,d));
+				sparseVector.set(i, d);
 				array[i] = d;
 			}
 		}
@@ -916,7 +480,7 @@ class VectorOperator{
 			double d = r.nextDouble();
 			if(temp == 1)
 			{
-				sparseVector1.add(new Pair<Integer,Double>(i,d));
+				sparseVector1.set(i, d);
 				array1[i] = d;
 			}
 		}
@@ -974,41 +538,10 @@ class VectorOperator{
 	 * @param vec
 	 * @return
 	 */
-	public static Double getAbsSum(Vector vec)
+	public static Double getAbsSum(Vector<?> vec)
 	{
 		if(vec == null) return null;
-		
-		if(vec instanceof SparseVector) return getAbsSum((SparseVector) vec);
-		else return getAbsSum((DenseVector) vec);
-		
-	}
-	/**
-	 * return sum of |w(i)| for each dimension i tested
-	 * @param vec
-	 * @return
-	 */
-	private static Double getAbsSum(DenseVector vec){
-		double sum = 0.0;
-		int size = vec.size();
-		for(int i = 0; i < size; i ++)
-			sum += Math.abs(vec.get(i));
-		
-		return sum;
-	}
-	/**
-	 * return sum of |w(i)| for each dimension i tested
-	 * @param vec
-	 * @return
-	 */
-	private static Double getAbsSum(SparseVector vec)
-	{
-		double sum = 0.0;
-		Iterator<Pair<Integer,Double>> iterator = vec.iterator();
-		while(iterator.hasNext())
-		{
-			sum += Math.abs(iterator.next().getValue());
-		}
-		return sum;
+		return KernelRegistry.kernel(vec).absSum(vec);
 	}
 	// the test function
 	private static void testAbsSum()
@@ -1023,7 +556,7 @@ class VectorOperator{
 			double d =  -r.nextDouble();
 			if(Math.abs(d) > ROUND_TO_ZERO)
 			{
-				sparseVector.add(new Pair<Integer,Double>(i,d));
+				sparseVector.set(i, d);
 				array[i] = d;
 				denseVector.add(d);
 			}
@@ -1049,6 +582,203 @@ class VectorOperator{
 		else
 			System.out.println(false);
 	}
+	// number of vector representations randomVector() can build
+	private static final int KINDS = 5;
+	
+	/**
+	 * fill array with random values, about half of them 0, and return them as a vector of the
+	 * given kind: DenseVector, SparseVector on either storage, FrozenSparseVector or OffHeapDenseVector
+	 */
+	private static Vector<?> randomVector(Random r, double[] array, int kind)
+	{
+		for(int i = 0; i < array.length; i ++)
+			array[i] = r.nextBoolean() ? r.nextDouble() - 0.5 : 0.0;
+		if(kind == 0)
+			return new DenseVector(array.clone());
+		if(kind == 4)
+			return new OffHeapDenseVector(new DenseVector(array.clone()));
+		SparseVector vec = new SparseVector(array.length, kind == 1 ? SparseVector.Storage.HASH_MAP : SparseVector.Storage.OPEN_ADDRESSING);
+		for(int i = 0; i < array.length; i ++)
+			if(array[i] != 0.0)
+				vec.set(i, array[i]);
+		return kind == 3 ? vec.freeze() : vec;
+	}
+	
+	// test function for cursors: increasing indices, every stored element once, dense vectors in full
+	private static void testCursor()
+	{
+		Random r = new Random();
+		double[] array = new double[r.nextInt(100)];
+		boolean ok = true;
+		for(int kind = 0; kind < KINDS; kind ++)
+		{
+			Vector<?> vec = randomVector(r, array, kind);
+			boolean dense = kind == 0 || kind == 4;
+			VectorCursor cur = vec.cursor();
+			int last = -1, count = 0, nonZeros = 0;
+			for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex(), count ++)
+			{
+				ok &= i > last && i < array.length && cur.value() == array[i];
+				last = i;
+			}
+			for(double d : array)
+				if(d != 0.0) nonZeros ++;
+			ok &= cur.nextIndex() < 0 && count == (dense ? array.length : nonZeros) && count == vec.numOfElements();
+		}
+		System.out.println(ok);
+	}
+	
+	// |a - b| small relative to the size of the terms that were summed
+	private static boolean close(double a, double b, double scale)
+	{
+		return Math.abs(a - b) <= 1e-12 * (1.0 + scale);
+	}
+	
+	// test function for metrics(): every pair of representations against plain loops
+	private static void testMetrics()
+	{
+		Random r = new Random();
+		int length = r.nextInt(100);
+		double[] array1 = new double[length], array2 = new double[length];
+		VectorMetrics m = new VectorMetrics();
+		boolean ok = true;
+		for(int kind1 = 0; kind1 < KINDS; kind1 ++)
+			for(int kind2 = 0; kind2 < KINDS; kind2 ++)
+			{
+				Vector<?> vec1 = randomVector(r, array1, kind1), vec2 = randomVector(r, array2, kind2);
+				double dot = 0.0, se = 0.0, ae = 0.0, n1 = 0.0, n2 = 0.0;
+				for(int i = 0; i < length; i ++)
+				{
+					double d = array1[i] - array2[i];
+					dot += array1[i] * array2[i];
+					se += d * d;
+					ae += Math.abs(d);
+					n1 += array1[i] * array1[i];
+					n2 += array2[i] * array2[i];
+				}
+				ok &= metrics(vec1, vec2, m) == m;
+				ok &= close(m.getScalarProduct(), dot, length) && close(m.getSquareError(), se, length) && close(m.getAbsError(), ae, length);
+				ok &= close(m.getSquareNorm1(), n1, length) && close(m.getSquareNorm2(), n2, length);
+			}
+		System.out.println(ok);
+	}
+	
+	// test function for the batch scores, against plain loops. the large batch has rows longer
+	// than a column block and enough elements for the parallel path
+	private static void testBatch(int rows, int length)
+	{
+		Random r = new Random();
+		double[][] arrays = new double[rows][length];
+		Vector<?>[] vecs = new Vector<?>[rows];
+		ArrayList<Vector<?>> list = new ArrayList<Vector<?>>();
+		for(int i = 0; i < rows; i ++)
+		{
+			vecs[i] = randomVector(r, arrays[i], r.nextInt(KINDS));
+			list.add(vecs[i]);
+		}
+		SampleSet<Vector<?>> samples = new SampleSet<Vector<?>>(list);
+		boolean ok = true;
+		for(int kind = 0; kind < KINDS; kind ++)
+		{
+			double[] array = new double[length];
+			Vector<?> vec = randomVector(r, array, kind);
+			double[] dots = new double[rows], ses = new double[rows], aes = new double[rows];
+			double[] dots1 = new double[rows], ses1 = new double[rows], aes1 = new double[rows];
+			scalarProducts(vec, vecs, dots);
+			squareErrors(vec, vecs, ses);
+			absErrors(vec, vecs, aes);
+			scalarProducts(vec, samples, dots1);
+			squareErrors(vec, samples, ses1);
+			absErrors(vec, samples, aes1);
+			for(int i = 0; i < rows; i ++)
+			{
+				double dot = 0.0, se = 0.0, ae = 0.0;
+				for(int j = 0; j < length; j ++)
+				{
+					double d = array[j] - arrays[i][j];
+					dot += array[j] * arrays[i][j];
+					se += d * d;
+					ae += Math.abs(d);
+				}
+				ok &= close(dots[i], dot, length) && close(ses[i], se, length) && close(aes[i], ae, length);
+				ok &= dots1[i] == dots[i] && ses1[i] == ses[i] && aes1[i] == aes[i];
+			}
+		}
+		System.out.println(ok);
+	}
+	
+	// test function for the registered kernels: every pair of representations through the public
+	// operators, and the unary kernels
+	private static void testKernels()
+	{
+		Random r = new Random();
+		int length = r.nextInt(100);
+		double[] array1 = new double[length], array2 = new double[length];
+		boolean ok = true;
+		for(int kind1 = 0; kind1 < KINDS; kind1 ++)
+		{
+			for(int kind2 = 0; kind2 < KINDS; kind2 ++)
+			{
+				Vector<?> vec1 = randomVector(r, array1, kind1), vec2 = randomVector(r, array2, kind2);
+				double dot = 0.0, se = 0.0, ae = 0.0;
+				for(int i = 0; i < length; i ++)
+				{
+					double d = array1[i] - array2[i];
+					dot += array1[i] * array2[i];
+					se += d * d;
+					ae += Math.abs(d);
+				}
+				ok &= close(scalarProduct(vec1, vec2), dot, length) && close(squareError(vec1, vec2), se, length) && close(absError(vec1, vec2), ae, length);
+			}
+			Vector<?> vec = randomVector(r, array1, kind1);
+			double sum = 0.0;
+			for(double d : array1)
+				sum += Math.abs(d);
+			DenseVector out = new DenseVector(new double[length]);
+			multiplyNumber(vec, 2.0, out);
+			ok &= close(getAbsSum(vec), sum, length);
+			for(int i = 0; i < length; i ++)
+				ok &= out.getDouble(i) == 2.0 * array1[i];
+		}
+		System.out.println(ok);
+	}
+	
+	// test function for register(): lookups are on exact classes, so a subclass gets the generic
+	// kernel until it is registered, and registering (A, B) also serves (B, A). run it once
+	private static void testRegister()
+	{
+		Random r = new Random();
+		int length = r.nextInt(100);
+		double[] array1 = new double[length], array2 = new double[length];
+		randomVector(r, array1, 0);
+		randomVector(r, array2, 0);
+		final int[] calls = new int[1];
+		TaggedVector tagged = new TaggedVector(array1);
+		DenseVector dense = new DenseVector(array2);
+		boolean ok = true;
+		ok &= KernelRegistry.kernel(tagged, dense).getClass() == VectorKernel.class;
+		KernelRegistry.register(TaggedVector.class, DenseVector.class, new VectorKernel<TaggedVector, DenseVector>(){
+			@Override
+			double dot(TaggedVector vec1, DenseVector vec2){
+				calls[0] ++;
+				return DenseKernels.dot(vec1.array(), vec2.array(), vec1.size());
+			}
+		});
+		double dot = DenseKernels.dot(array1, array2, length);
+		ok &= scalarProduct(tagged, dense) == dot && scalarProduct(dense, tagged) == dot && calls[0] == 2;
+		ok &= KernelRegistry.kernel(tagged, tagged).getClass() == VectorKernel.class;
+		System.out.println(ok);
+	}
+	
+	// a DenseVector of its own class, for testRegister()
+	private static class TaggedVector extends DenseVector
+	{
+		TaggedVector(double[] values)
+		{
+			super(values);
+		}
+	}
+	
 	public static void main(String[] args)
 	{
 		for(int i = 0; i < 10; i ++)
@@ -1056,6 +786,12 @@ class VectorOperator{
 			//testAbsSum();
 			//testAbsError();
 			testSquareError();
+			testCursor();
+			testMetrics();
+			testBatch(50, 40);
+			testKernels();
 		}
+		testBatch(200, 3000);
+		testRegister();
 	}
 }
\ No newline at end of file
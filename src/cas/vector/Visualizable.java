@@ -0,0 +1,5 @@
+package cas.vector;
+
+public interface Visualizable{
+	void print();
+}
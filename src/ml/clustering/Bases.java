@@ -2,10 +2,6 @@ package ml.clustering;
 
 import java.util.*;
 
-interface Clusterable{
-	void clustering();
-}
-
 abstract class ClusterElement{  
 	
 }
@@ -0,0 +1,5 @@
+package ml.clustering;
+
+interface Clusterable{
+	void clustering();
+}
@@ -0,0 +1,524 @@
+package ml.clustering;
+
+import java.util.Random;
+import java.util.concurrent.*;
+
+import cas.Matrix;
+import cas.vector.Vector;
+import cas.vector.VectorOperator;
+import ml.clustering.DistanceMatrix.Metric;
+import ml.clustering.HierarchicalClustering.Linkage;
+
+/**
+ * Kernels over the packed DistanceMatrix, and the brute-force search of KnnClustering. Work that grows
+ * with the number of points is split over a ForkJoinPool once it is large enough to pay for the tasks.
+ * @author kex
+ *
+ */
+final class ClusteringKernels{
+	private static final int PARALLEL_THRESHOLD = 1 << 14;  // slots below which a merge update runs sequentially
+	private static final int MIN_POINTS_PER_TASK = 1 << 12; // slots per task of a merge update
+	private static final int TILE_ROWS = 64;                // points per tile row, too few for Matrix to go parallel
+	private static final int TILE_COLUMNS = 1024;           // points per tile column in gram() and knn(), 512KB of products
+	private static final int PAIR_TILE = 64;                // points per tile side in pairwise()
+	private static final long TILE_THRESHOLD = 1L << 20;    // multiply-adds below which a distance matrix is built sequentially
+
+	private static ForkJoinPool pool;
+	
+	// product tile and query heaps of every thread, reused across tiles, tasks and calls
+	private static final ThreadLocal<Tile> TILES = new ThreadLocal<Tile>(){
+		@Override
+		protected Tile initialValue(){
+			return new Tile();
+		}
+	};
+	
+	// TILE_ROWS-by-TILE_COLUMNS products, row-major in g; a tile of r rows and c columns is written by
+	// times() into G.subMatrix(0, r, 0, c), so product (i, j) is at g[i * TILE_COLUMNS + j]
+	private static final class Tile{
+		final double[] g = new double[TILE_ROWS * TILE_COLUMNS];
+		final Matrix G = Matrix.wrap(TILE_ROWS, TILE_COLUMNS, g);
+		private NeighborHeap[] heaps = new NeighborHeap[0];
+		
+		// TILE_ROWS empty heaps of k neighbors
+		NeighborHeap[] heaps(int k){
+			if(heaps.length == 0 || heaps[0].capacity() != k){
+				heaps = new NeighborHeap[TILE_ROWS];
+				for(int i = 0; i < TILE_ROWS; i++)
+					heaps[i] = new NeighborHeap(k);
+			}
+			for(NeighborHeap heap : heaps)
+				heap.clear();
+			return heaps;
+		}
+	}
+
+	private ClusteringKernels(){
+
+	}
+
+	static synchronized ForkJoinPool pool(){
+		if(pool == null)
+			pool = new ForkJoinPool();
+		return pool;
+	}
+
+	/**
+	 * Lance-Williams update after merging the clusters at slots keep < drop at distance dab: the distance
+	 * from every other slot k to the merged cluster overwrites d(keep, k) in place. size holds the cluster
+	 * sizes before the merge; slots with size 0 are retired, their distances are never read again and may be
+	 * overwritten with anything.
+	 */
+	static void lanceWilliams(Linkage linkage, double[] d, int[] size, int keep, int drop, double dab){
+		int n = size.length;
+		if(n < PARALLEL_THRESHOLD || Runtime.getRuntime().availableProcessors() < 2)
+			lanceWilliams(linkage, d, size, keep, drop, dab, 0, n);
+		else
+			pool().invoke(new UpdateTask(linkage, d, size, keep, drop, dab, 0, n, MIN_POINTS_PER_TASK));
+	}
+
+	// sequential update for slots k in [from, to)
+	static void lanceWilliams(Linkage linkage, double[] d, int[] size, int keep, int drop, double dab, int from, int to){
+		double na = size[keep], nb = size[drop];
+		int rowKeep = DistanceMatrix.index(keep, 0), rowDrop = DistanceMatrix.index(drop, 0);
+
+		// k < keep : d(keep, k) and d(drop, k) are both contiguous, in rows keep and drop
+		int end = Math.min(to, keep);
+		if(from < end)
+			contiguous(linkage, d, size, rowKeep, rowDrop, from, end, na, nb, dab);
+
+		// keep < k < drop : d(keep, k) is in row k, d(drop, k) in row drop. strided, so retired slots are skipped
+		end = Math.min(to, drop);
+		for(int k = Math.max(from, keep + 1); k < end; k++){
+			if(size[k] == 0)
+				continue;
+			int ik = DistanceMatrix.index(k, keep);
+			d[ik] = combine(linkage, d[ik], d[rowDrop + k], na, nb, size[k], dab);
+		}
+
+		// k > drop : both are in row k
+		for(int k = Math.max(from, drop + 1); k < to; k++){
+			if(size[k] == 0)
+				continue;
+			int row = DistanceMatrix.index(k, 0);
+			d[row + keep] = combine(linkage, d[row + keep], d[row + drop], na, nb, size[k], dab);
+		}
+	}
+
+	// one loop per linkage, so that the JIT can unroll and vectorize it
+	private static void contiguous(Linkage linkage, double[] d, int[] size, int rowKeep, int rowDrop, int from, int to,
+			double na, double nb, double dab){
+		switch(linkage){
+		case SINGLE:
+			for(int k = from; k < to; k++)
+				d[rowKeep + k] = Math.min(d[rowKeep + k], d[rowDrop + k]);
+			break;
+		case COMPLETE:
+			for(int k = from; k < to; k++)
+				d[rowKeep + k] = Math.max(d[rowKeep + k], d[rowDrop + k]);
+			break;
+		case AVERAGE:
+			double wa = na / (na + nb), wb = nb / (na + nb);
+			for(int k = from; k < to; k++)
+				d[rowKeep + k] = wa * d[rowKeep + k] + wb * d[rowDrop + k];
+			break;
+		default:
+			for(int k = from; k < to; k++)
+				d[rowKeep + k] = ward(d[rowKeep + k], d[rowDrop + k], na, nb, size[k], dab);
+		}
+	}
+
+	private static double combine(Linkage linkage, double dak, double dbk, double na, double nb, double nk, double dab){
+		switch(linkage){
+		case SINGLE:
+			return Math.min(dak, dbk);
+		case COMPLETE:
+			return Math.max(dak, dbk);
+		case AVERAGE:
+			return (na * dak + nb * dbk) / (na + nb);
+		default:
+			return ward(dak, dbk, na, nb, nk, dab);
+		}
+	}
+
+	// rounding can take the square slightly below 0 for clusters at nearly the same place; clamped, since a
+	// NaN would never be taken as nearest
+	private static double ward(double dak, double dbk, double na, double nb, double nk, double dab){
+		return Math.sqrt(Math.max(0.0, ((na + nk) * dak * dak + (nb + nk) * dbk * dbk - nk * dab * dab) / (na + nb + nk)));
+	}
+
+	/**
+	 * subtracts the mean of the n rows of the row-major n-by-dim x from every row, in place.
+	 * Euclidean distances do not change, but the norms that the Gram form subtracts shrink to the
+	 * spread of the rows, so far fewer digits cancel.
+	 * @return the mean that was subtracted
+	 */
+	static double[] center(double[] x, int n, int dim){
+		double[] mean = new double[dim];
+		if(n == 0)
+			return mean;
+		for(int i = 0; i < n; i++)
+			for(int k = 0; k < dim; k++)
+				mean[k] += x[i * dim + k];
+		for(int k = 0; k < dim; k++)
+			mean[k] /= n;
+		for(int i = 0; i < n; i++)
+			for(int k = 0; k < dim; k++)
+				x[i * dim + k] -= mean[k];
+		return mean;
+	}
+	
+	/**
+	 * fills the packed distances d from the Gram matrix of the rows of X, EUCLIDEAN or COSINE
+	 */
+	static void gram(Matrix X, Metric metric, double[] d){
+		int n = X.rows(), dim = X.columns();
+		double[] norms = new double[n];
+		for(int i = 0; i < n; i++){
+			double s = 0.0;
+			for(int k = 0; k < dim; k++)
+				s += X.get(i, k) * X.get(i, k);
+			norms[i] = metric == Metric.COSINE ? Math.sqrt(s) : s;
+		}
+		tiles(X, norms, null, metric, d, 0, (n + TILE_ROWS - 1) / TILE_ROWS, (long)n * n / 2 * dim);
+	}
+	
+	/**
+	 * fills the packed distances d with one VectorOperator call per pair
+	 */
+	static void pairwise(Vector<?>[] vecs, Metric metric, double[] d){
+		int n = vecs.length;
+		double[] norms = null;
+		long work = 0;
+		for(int i = 0; i < n; i++)
+			work += vecs[i].numOfElements();
+		if(metric == Metric.COSINE){
+			norms = new double[n];
+			for(int i = 0; i < n; i++)
+				norms[i] = Math.sqrt(VectorOperator.scalarProduct(vecs[i], vecs[i]));
+		}
+		tiles(null, norms, vecs, metric, d, 0, (n + PAIR_TILE - 1) / PAIR_TILE, work / 2 * n);
+	}
+	
+	private static void tiles(Matrix X, double[] norms, Vector<?>[] vecs, Metric metric, double[] d, int from, int to, long work){
+		if(work < TILE_THRESHOLD || to - from < 2 || Runtime.getRuntime().availableProcessors() < 2)
+			tiles(X, norms, vecs, metric, d, from, to);
+		else
+			pool().invoke(new TileTask(X, norms, vecs, metric, d, from, to));
+	}
+	
+	// sequential, tile rows [from, to); X != null selects gram(), otherwise pairwise()
+	private static void tiles(Matrix X, double[] norms, Vector<?>[] vecs, Metric metric, double[] d, int from, int to){
+		if(X != null)
+			gramTiles(X, norms, metric, d, from, to);
+		else
+			pairTiles(vecs, norms, metric, d, from, to);
+	}
+	
+	private static void gramTiles(Matrix X, double[] norms, Metric metric, double[] d, int from, int to){
+		int n = X.rows(), dim = X.columns();
+		Tile tile = TILES.get();
+		double[] g = tile.g;
+		for(int t = from; t < to; t++){
+			int i0 = t * TILE_ROWS, i1 = Math.min(n, i0 + TILE_ROWS);
+			Matrix Xi = X.subMatrix(i0, i1, 0, dim);
+			for(int j0 = 0; j0 < i1 - 1; j0 += TILE_COLUMNS){
+				int j1 = Math.min(i1 - 1, j0 + TILE_COLUMNS);
+				Xi.times(X.subMatrix(j0, j1, 0, dim).transposeView(), tile.G.subMatrix(0, i1 - i0, 0, j1 - j0));
+				for(int i = Math.max(i0, j0 + 1); i < i1; i++){
+					int row = DistanceMatrix.index(i, 0);
+					int end = Math.min(i, j1);
+					int gi = (i - i0) * TILE_COLUMNS - j0;    // product (i, j) at g[gi + j]
+					double ni = norms[i];
+					if(metric == Metric.EUCLIDEAN)
+						for(int j = j0; j < end; j++)
+							d[row + j] = Math.sqrt(Math.max(0.0, ni + norms[j] - 2.0 * g[gi + j]));
+					else
+						for(int j = j0; j < end; j++)
+							d[row + j] = cosine(g[gi + j], ni, norms[j]);
+				}
+			}
+		}
+	}
+	
+	private static void pairTiles(Vector<?>[] vecs, double[] norms, Metric metric, double[] d, int from, int to){
+		int n = vecs.length;
+		for(int t = from; t < to; t++){
+			int i0 = t * PAIR_TILE, i1 = Math.min(n, i0 + PAIR_TILE);
+			// the PAIR_TILE samples of a tile column stay in cache while the tile row passes over them
+			for(int j0 = 0; j0 < i1 - 1; j0 += PAIR_TILE){
+				int j1 = Math.min(i1 - 1, j0 + PAIR_TILE);
+				for(int i = Math.max(i0, j0 + 1); i < i1; i++){
+					int row = DistanceMatrix.index(i, 0);
+					int end = Math.min(i, j1);
+					for(int j = j0; j < end; j++){
+						switch(metric){
+						case EUCLIDEAN:
+							d[row + j] = Math.sqrt(VectorOperator.squareError(vecs[i], vecs[j]));
+							break;
+						case MANHATTAN:
+							d[row + j] = VectorOperator.absError(vecs[i], vecs[j]);
+							break;
+						default:
+							d[row + j] = cosine(VectorOperator.scalarProduct(vecs[i], vecs[j]), norms[i], norms[j]);
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * exact k nearest rows of X for every row of Q under the Euclidean distance, from the products Q X^T
+	 * taken tile by tile with cas.Matrix.times() and |q - x|^2 = |q|^2 + |x|^2 - 2 q .* x. Each query of a
+	 * tile row keeps its k best in a NeighborHeap while the tile columns pass; tile rows run in parallel.
+	 * 
+	 * the neighbors of query i are written to outIdx / outDist at i * k, nearest first. with self, Q is X
+	 * and row i is not its own neighbor.
+	 * 
+	 * the k found for a query are measured again by direct differences and re-sorted, so the distances
+	 * returned are exact and duplicates come out at 0. the selection itself still carries the cancellation
+	 * of the norm form, an error of a few ulps of |q|^2 + |x|^2; callers centre Q and X on the mean of X
+	 * to keep it small.
+	 */
+	static void knn(Matrix Q, double[] qNorms, Matrix X, double[] xNorms, boolean self, int k, int[] outIdx, double[] outDist){
+		int m = Q.rows(), tiles = (m + TILE_ROWS - 1) / TILE_ROWS;
+		if((long)m * X.rows() * X.columns() < TILE_THRESHOLD || tiles < 2 || Runtime.getRuntime().availableProcessors() < 2)
+			knn(Q, qNorms, X, xNorms, self, k, outIdx, outDist, 0, tiles);
+		else
+			pool().invoke(new KnnTask(Q, qNorms, X, xNorms, self, k, outIdx, outDist, 0, tiles));
+	}
+	
+	// sequential, tile rows [from, to) of Q
+	private static void knn(Matrix Q, double[] qNorms, Matrix X, double[] xNorms, boolean self, int k, int[] outIdx, double[] outDist,
+			int from, int to){
+		int m = Q.rows(), n = X.rows(), dim = X.columns();
+		Tile tile = TILES.get();
+		double[] g = tile.g;
+		NeighborHeap[] heaps = tile.heaps(k);
+		
+		for(int t = from; t < to; t++){
+			int i0 = t * TILE_ROWS, i1 = Math.min(m, i0 + TILE_ROWS);
+			Matrix Qi = Q.subMatrix(i0, i1, 0, dim);
+			for(int j0 = 0; j0 < n; j0 += TILE_COLUMNS){
+				int j1 = Math.min(n, j0 + TILE_COLUMNS);
+				Qi.times(X.subMatrix(j0, j1, 0, dim).transposeView(), tile.G.subMatrix(0, i1 - i0, 0, j1 - j0));
+				for(int i = i0; i < i1; i++){
+					NeighborHeap heap = heaps[i - i0];
+					int gi = (i - i0) * TILE_COLUMNS - j0;    // product (i, j) at g[gi + j]
+					double qi = qNorms[i], bound = heap.bound();
+					for(int j = j0; j < j1; j++){
+						double s = qi + xNorms[j] - 2.0 * g[gi + j];
+						if(s < bound && !(self && j == i)){
+							heap.offer(j, Math.max(0.0, s));
+							bound = heap.bound();
+						}
+					}
+				}
+			}
+			for(int i = i0; i < i1; i++){
+				heaps[i - i0].drain(outIdx, outDist, i * k);
+				rerank(Q, i, X, k, outIdx, outDist, i * k);
+			}
+		}
+	}
+	
+	// replace the k distances of query i at off by direct ones, then sort by distance, ties by index
+	private static void rerank(Matrix Q, int i, Matrix X, int k, int[] idx, double[] dist, int off){
+		int dim = X.columns();
+		for(int j = off; j < off + k; j++){
+			double s = 0.0;
+			for(int d = 0; d < dim; d++){
+				double diff = Q.get(i, d) - X.get(idx[j], d);
+				s += diff * diff;
+			}
+			dist[j] = Math.sqrt(s);
+		}
+		for(int j = off + 1; j < off + k; j++){
+			int id = idx[j];
+			double v = dist[j];
+			int p = j - 1;
+			for(; p >= off && (dist[p] > v || dist[p] == v && idx[p] > id); p--){
+				idx[p + 1] = idx[p];
+				dist[p + 1] = dist[p];
+			}
+			idx[p + 1] = id;
+			dist[p + 1] = v;
+		}
+	}
+	
+	private static double cosine(double dot, double normA, double normB){
+		if(normA == 0.0 || normB == 0.0)
+			return 1.0;
+		return Math.max(0.0, 1.0 - dot / (normA * normB));
+	}
+	
+	/**
+	 * splits the tile rows in halves down to a single tile row; later tile rows hold more tiles, so the
+	 * halves are uneven and left to work stealing
+	 */
+	private static class TileTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		
+		private final Matrix X;
+		private final double[] norms;
+		private final Vector<?>[] vecs;
+		private final Metric metric;
+		private final double[] d;
+		private final int from, to;
+		
+		TileTask(Matrix X, double[] norms, Vector<?>[] vecs, Metric metric, double[] d, int from, int to){
+			this.X = X;
+			this.norms = norms;
+			this.vecs = vecs;
+			this.metric = metric;
+			this.d = d;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute(){
+			if(to - from <= 1){
+				tiles(X, norms, vecs, metric, d, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new TileTask(X, norms, vecs, metric, d, from, mid),
+					new TileTask(X, norms, vecs, metric, d, mid, to));
+		}
+	}
+	
+	/**
+	 * splits the query tile rows in halves down to a single tile row
+	 */
+	private static class KnnTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		
+		private final Matrix Q, X;
+		private final double[] qNorms, xNorms;
+		private final boolean self;
+		private final int k;
+		private final int[] outIdx;
+		private final double[] outDist;
+		private final int from, to;
+		
+		KnnTask(Matrix Q, double[] qNorms, Matrix X, double[] xNorms, boolean self, int k, int[] outIdx, double[] outDist,
+				int from, int to){
+			this.Q = Q;
+			this.qNorms = qNorms;
+			this.X = X;
+			this.xNorms = xNorms;
+			this.self = self;
+			this.k = k;
+			this.outIdx = outIdx;
+			this.outDist = outDist;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute(){
+			if(to - from <= 1){
+				knn(Q, qNorms, X, xNorms, self, k, outIdx, outDist, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new KnnTask(Q, qNorms, X, xNorms, self, k, outIdx, outDist, from, mid),
+					new KnnTask(Q, qNorms, X, xNorms, self, k, outIdx, outDist, mid, to));
+		}
+	}
+	
+	/**
+	 * splits the slots in halves until a range holds at most grain slots
+	 */
+	private static class UpdateTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+
+		private final Linkage linkage;
+		private final double[] d;
+		private final int[] size;
+		private final int keep, drop;
+		private final double dab;
+		private final int from, to;
+		private final int grain;
+
+		UpdateTask(Linkage linkage, double[] d, int[] size, int keep, int drop, double dab, int from, int to, int grain){
+			this.linkage = linkage;
+			this.d = d;
+			this.size = size;
+			this.keep = keep;
+			this.drop = drop;
+			this.dab = dab;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute(){
+			if(to - from <= grain){
+				lanceWilliams(linkage, d, size, keep, drop, dab, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new UpdateTask(linkage, d, size, keep, drop, dab, from, mid, grain),
+					new UpdateTask(linkage, d, size, keep, drop, dab, mid, to, grain));
+		}
+	}
+	// test function for lanceWilliams(): one merge on a random matrix with retired slots, the slots updated
+	// in random ranges, or by UpdateTask on the pool split down to a few slots per task. d(keep, k) must
+	// follow the linkage formula for every live k, and distances between other live slots must not change
+	private static void testLanceWilliams(Linkage linkage, boolean pooled){
+		Random r = new Random();
+		int n = 2 + r.nextInt(200);
+		DistanceMatrix dm = new DistanceMatrix(n);
+		int[] size = new int[n];
+		for(int i = 0; i < n; i++){
+			size[i] = r.nextInt(4) == 0 ? 0 : 1 + r.nextInt(5);
+			for(int j = 0; j < i; j++)
+				dm.set(i, j, 1.0 + r.nextDouble());
+		}
+		int keep = r.nextInt(n - 1), drop = keep + 1 + r.nextInt(n - keep - 1);
+		size[keep] = 1 + r.nextInt(5);
+		size[drop] = 1 + r.nextInt(5);
+		double dab = r.nextDouble();    // below every other distance, as for a nearest pair
+		dm.set(keep, drop, dab);
+		DistanceMatrix before = new DistanceMatrix(n);
+		System.arraycopy(dm.data, 0, before.data, 0, dm.data.length);
+
+		if(pooled)
+			pool().invoke(new UpdateTask(linkage, dm.data, size, keep, drop, dab, 0, n, 1 + r.nextInt(16)));
+		else
+			for(int from = 0, to; from < n; from = to){
+				to = Math.min(n, from + 1 + r.nextInt(n));
+				lanceWilliams(linkage, dm.data, size, keep, drop, dab, from, to);
+			}
+		double na = size[keep], nb = size[drop];
+		boolean ok = true;
+		for(int k = 0; k < n; k++){
+			if(size[k] == 0 || k == keep || k == drop)
+				continue;
+			double dak = before.get(keep, k), dbk = before.get(drop, k), nk = size[k], expected;
+			switch(linkage){
+			case SINGLE:   expected = Math.min(dak, dbk); break;
+			case COMPLETE: expected = Math.max(dak, dbk); break;
+			case AVERAGE:  expected = (na * dak + nb * dbk) / (na + nb); break;
+			default:       expected = Math.sqrt(((na + nk) * dak * dak + (nb + nk) * dbk * dbk - nk * dab * dab) / (na + nb + nk));
+			}
+			ok &= Math.abs(dm.get(keep, k) - expected) <= 1e-14 * expected;
+			for(int j = 0; j < k; j++)
+				if(size[j] != 0 && j != keep && j != drop)
+					ok &= dm.get(k, j) == before.get(k, j);
+		}
+		System.out.println(ok);
+	}
+
+	public static void main(String[] args){
+		for(int i = 0; i < 10; i++)
+			for(Linkage linkage : Linkage.values()){
+				testLanceWilliams(linkage, false);
+				testLanceWilliams(linkage, true);
+			}
+	}
+}
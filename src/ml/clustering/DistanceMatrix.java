@@ -0,0 +1,223 @@
+package ml.clustering;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import cas.Matrix;
+import cas.SampleSet;
+import cas.vector.DenseVector;
+import cas.vector.SparseVector;
+import cas.vector.Vector;
+
+/**
+ * Symmetric n-by-n distance matrix with a zero diagonal, packed as its strict lower triangle.
+ * Entry (i, j) with i > j is kept at data[i * (i - 1) / 2 + j], so the matrix takes n * (n - 1) / 2
+ * doubles in one array instead of the n * n of a cas.Matrix.
+ * 
+ * build() fills one from a SampleSet, in tiles and in parallel.
+ * @author kex
+ *
+ */
+public class DistanceMatrix {
+	/**
+	 * EUCLIDEAN is sqrt(VectorOperator.squareError()), MANHATTAN is VectorOperator.absError() and COSINE is
+	 * 1 - a .* b / (|a| |b|), taken as 1 when either vector is zero.
+	 */
+	public enum Metric { EUCLIDEAN, MANHATTAN, COSINE }
+	
+	final int n;
+	final double[] data;
+	
+	public DistanceMatrix(int n){
+		if(n < 0)
+			throw new RuntimeException("Negative size.");
+		long len = (long)n * (n - 1) / 2;
+		if(len > Integer.MAX_VALUE - 8)
+			throw new RuntimeException("Too many points for a packed distance matrix : " + n);
+		this.n = n;
+		this.data = new double[(int)len];
+	}
+	
+	/**
+	 * copy the strict lower triangle of a square matrix; the diagonal and upper triangle are not read
+	 */
+	public DistanceMatrix(Matrix m){
+		this(m.rows());
+		if(m.rows() != m.columns())
+			throw new RuntimeException("Distance matrix must be square.");
+		for(int i = 1; i < n; i++){
+			int base = index(i, 0);
+			for(int j = 0; j < i; j++)
+				data[base + j] = m.get(i, j);
+		}
+	}
+	
+	/**
+	 * pairwise distances between the samples, which must all have the same size.
+	 * when every sample is a DenseVector, EUCLIDEAN and COSINE are computed from the Gram matrix of the
+	 * samples, tile by tile with cas.Matrix.times(), using |a - b|^2 = |a|^2 + |b|^2 - 2 a .* b and
+	 * precomputed norms. other cases call VectorOperator once per pair, also in tiles.
+	 * 
+	 * the Gram form cancels, leaving an absolute error of a few ulps of |a|^2 + |b|^2 on a squared
+	 * distance. for EUCLIDEAN the samples are centred on their mean first, which does not change the
+	 * distances but makes that error relative to the spread of the samples instead of to their distance
+	 * from the origin. distances are then accurate to about 1e-8 times that spread: pairs much closer
+	 * than that, duplicates included, are not resolved. COSINE depends on the origin and is not centred.
+	 * samples that are not all DenseVector take the pairwise path, which has no such limit.
+	 */
+	public static <V extends Vector<?>> DistanceMatrix build(SampleSet<V> samples, Metric metric){
+		int n = samples.size();
+		Vector<?>[] vecs = new Vector<?>[n];
+		boolean dense = true;
+		for(int i = 0; i < n; i++){
+			vecs[i] = samples.get(i);
+			if(vecs[i] == null || vecs[i].size() != vecs[0].size())
+				throw new RuntimeException("Samples must have the same size.");
+			dense &= vecs[i] instanceof DenseVector;
+		}
+		DistanceMatrix dm = new DistanceMatrix(n);
+		if(n < 2)
+			return dm;
+		
+		int dim = vecs[0].size();
+		if(dense && dim > 0 && metric != Metric.MANHATTAN && (long)n * dim <= Integer.MAX_VALUE){
+			double[] x = new double[n * dim];
+			for(int i = 0; i < n; i++)
+				for(int k = 0; k < dim; k++)
+					x[i * dim + k] = vecs[i].getDouble(k);
+			if(metric == Metric.EUCLIDEAN)
+				ClusteringKernels.center(x, n, dim);
+			ClusteringKernels.gram(new Matrix(n, dim, x), metric, dm.data);
+		}
+		else
+			ClusteringKernels.pairwise(vecs, metric, dm.data);
+		return dm;
+	}
+	
+	/**
+	 * @return position of (i, j), i > j, in the packed array
+	 */
+	static int index(int i, int j){
+		return (int)((long)i * (i - 1) / 2) + j;
+	}
+	
+	/**
+	 * @return the number of points
+	 */
+	public int size(){
+		return n;
+	}
+	
+	public double get(int i, int j){
+		if(i == j)
+			return 0.0;
+		return i > j ? data[index(i, j)] : data[index(j, i)];
+	}
+	
+	public void set(int i, int j, double d){
+		if(i == j)
+			throw new RuntimeException("Diagonal of a distance matrix is always 0.");
+		if(i > j)
+			data[index(i, j)] = d;
+		else
+			data[index(j, i)] = d;
+	}
+	
+	// test function for the packed layout: every (i, j), i != j, has its own slot shared with (j, i),
+	// the diagonal reads 0 and cannot be set, and the Matrix constructor reads only the lower triangle
+	private static void testPacked(){
+		Random r = new Random();
+		int n = r.nextInt(100);
+		DistanceMatrix dm = new DistanceMatrix(n);
+		double[][] full = new double[n][n];
+		boolean ok = dm.size() == n && dm.data.length == n * (n - 1) / 2;
+		boolean[] used = new boolean[dm.data.length];
+		for(int i = 1; i < n; i++)
+			for(int j = 0; j < i; j++){
+				ok &= !used[index(i, j)];
+				used[index(i, j)] = true;
+				full[i][j] = full[j][i] = r.nextDouble();
+				if(r.nextBoolean())
+					dm.set(i, j, full[i][j]);
+				else
+					dm.set(j, i, full[i][j]);
+			}
+		double[][] lower = new double[n][n];
+		for(int i = 0; i < n; i++)
+			for(int j = 0; j < n; j++)
+				lower[i][j] = i > j ? full[i][j] : Double.NaN;
+		DistanceMatrix copy = n == 0 ? new DistanceMatrix(0) : new DistanceMatrix(new Matrix(lower));
+		for(int i = 0; i < n; i++)
+			for(int j = 0; j < n; j++)
+				ok &= dm.get(i, j) == full[i][j] && copy.get(i, j) == full[i][j];
+		int refused = 0;
+		for(int i = 0; i < n; i++)
+			try{ dm.set(i, i, 1.0); }catch(RuntimeException e){ refused++; }
+		System.out.println(ok && refused == n);
+	}
+	
+	// test function for build(): n random samples at the given offset from the origin against plain loops
+	// over their values. dense samples take the Gram path for EUCLIDEAN and COSINE, a mix of dense and
+	// sparse samples the pairwise path. without an offset a few samples are zero vectors, for COSINE;
+	// with one they would widen the spread of the samples to the offset itself
+	private static void testBuild(int n, int dim, Metric metric, boolean dense, double offset){
+		Random r = new Random();
+		double[][] x = new double[n][dim];
+		ArrayList<Vector<?>> vecs = new ArrayList<Vector<?>>();
+		for(int i = 0; i < n; i++){
+			boolean sparse = !dense && r.nextBoolean(), zero = offset == 0.0 && r.nextInt(10) == 0;
+			for(int k = 0; k < dim; k++)
+				x[i][k] = zero || sparse && r.nextBoolean() ? 0.0 : offset + r.nextDouble();
+			if(sparse){
+				SparseVector vec = new SparseVector(dim);
+				for(int k = 0; k < dim; k++)
+					if(x[i][k] != 0.0)
+						vec.set(k, x[i][k]);
+				vecs.add(vec);
+			}else
+				vecs.add(new DenseVector(x[i]));
+		}
+		DistanceMatrix dm = build(new SampleSet<Vector<?>>(vecs), metric);
+		
+		boolean ok = dm.size() == n;
+		for(int i = 1; i < n; i++)
+			for(int j = 0; j < i; j++){
+				double sum = 0.0, dot = 0.0, ni = 0.0, nj = 0.0;
+				for(int k = 0; k < dim; k++){
+					double t = x[i][k] - x[j][k];
+					sum += metric == Metric.MANHATTAN ? Math.abs(t) : t * t;
+					dot += x[i][k] * x[j][k];
+					ni += x[i][k] * x[i][k];
+					nj += x[j][k] * x[j][k];
+				}
+				double expected;
+				if(metric == Metric.EUCLIDEAN)
+					expected = Math.sqrt(sum);
+				else if(metric == Metric.MANHATTAN)
+					expected = sum;
+				else
+					expected = ni == 0.0 || nj == 0.0 ? 1.0 : 1.0 - dot / Math.sqrt(ni * nj);
+				// the Gram form is accurate to about 1e-8 of the spread of the samples, see build()
+				ok &= Math.abs(dm.get(i, j) - expected) <= 1e-7 * (1 + dim);
+			}
+		System.out.println(ok);
+	}
+	
+	public static void main(String[] args){
+		Random r = new Random();
+		for(int i = 0; i < 10; i++){
+			testPacked();
+			for(Metric metric : Metric.values()){
+				testBuild(r.nextInt(150), 1 + r.nextInt(50), metric, true, 0.0);
+				testBuild(r.nextInt(150), 1 + r.nextInt(50), metric, false, 0.0);
+				testBuild(r.nextInt(150), 1 + r.nextInt(50), metric, true, 1e8);
+			}
+		}
+		
+		// enough work to split the tiles over the pool on a machine with several cores
+		for(Metric metric : Metric.values()){
+			testBuild(300, 30, metric, true, 0.0);
+			testBuild(300, 30, metric, false, 0.0);
+		}
+	}
+}
@@ -1,17 +1,359 @@
 package ml.clustering;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import ml.clustering.*;
 import cas.Matrix;
 
-//TODO  unfinished !
+/**
+ * Agglomerative hierarchical clustering over a precomputed distance matrix, using the
+ * nearest-neighbor-chain algorithm: O(n^2) time for the reducible linkages below, against the O(n^3)
+ * of repeatedly searching the whole matrix for the closest pair.
+ * 
+ * The result is a dendrogram in the usual merge-array form : merge k joins clusters getLeft()[k] and
+ * getRight()[k] at distance getHeight()[k], where labels 0..n-1 are the points and label n + k is the
+ * cluster formed by merge k. Merges are in non-decreasing order of height.
+ * 
+ * Cluster distances are updated in place: clustering() overwrites the distance matrix it was given,
+ * so that no memory beyond that matrix and a few arrays of n ints is needed. It can therefore run only
+ * once; the matrix is released afterwards and a second call is refused.
+ * @author kex
+ *
+ */
 public class HierarchicalClustering implements Clusterable{
-	private Matrix disMatrix;  // distance matrix. it should be a lower triangular matrix.
+	/**
+	 * distance between two clusters, updated with the Lance-Williams formula after each merge.
+	 * WARD expects Euclidean distances between the points.
+	 */
+	public enum Linkage { SINGLE, COMPLETE, AVERAGE, WARD }
 	
-	HierarchicalClustering(Matrix disMatrix){
+	private DistanceMatrix disMatrix;  // distance matrix, packed lower triangle
+	private Linkage linkage;
+	private int[] left, right;         // dendrogram, n - 1 merges
+	private double[] height;
+	
+	public HierarchicalClustering(DistanceMatrix disMatrix, Linkage linkage){
 		this.disMatrix = disMatrix;
+		this.linkage = linkage;
+	}
+	
+	// average linkage
+	HierarchicalClustering(DistanceMatrix disMatrix){
+		this(disMatrix, Linkage.AVERAGE);
+	}
+	
+	// only the lower triangle of disMatrix is read
+	HierarchicalClustering(Matrix disMatrix){
+		this(new DistanceMatrix(disMatrix));
 	}
 	
 	public void clustering(){
+		if(disMatrix == null)
+			throw new RuntimeException("Distance matrix already consumed by clustering().");
+		int n = disMatrix.size();
+		double[] d = disMatrix.data;
+		disMatrix = null;
+		int[] size = new int[n];          // points in the cluster kept at a slot, 0 once retired
+		int[] chain = new int[n];
+		int[] ma = new int[Math.max(n - 1, 0)], mb = new int[ma.length];   // merged slots, in merge order
+		double[] mh = new double[ma.length];
+		Arrays.fill(size, 1);
+		
+		int top = 0, first = 0;
+		for(int m = 0; m < n - 1; m++){
+			if(top == 0){
+				while(size[first] == 0) first++;
+				chain[top++] = first;
+			}
+			
+			// grow the chain until its last two clusters are reciprocal nearest neighbors
+			int a, b;
+			double dab;
+			while(true){
+				a = chain[top - 1];
+				// on ties prefer the previous cluster in the chain, or the chain could cycle
+				b = top > 1 ? chain[top - 2] : -1;
+				dab = b < 0 ? Double.POSITIVE_INFINITY : d[index(a, b)];
+				int base = DistanceMatrix.index(a, 0);
+				for(int j = 0; j < a; j++)
+					if(size[j] != 0 && d[base + j] < dab){
+						dab = d[base + j];
+						b = j;
+					}
+				for(int j = a + 1; j < n; j++)
+					if(size[j] != 0 && d[DistanceMatrix.index(j, a)] < dab){
+						dab = d[DistanceMatrix.index(j, a)];
+						b = j;
+					}
+				if(b < 0){    // only NaN distances left
+					b = top > 1 ? chain[top - 2] : nextActive(size, a);
+					dab = d[index(a, b)];
+				}
+				if(top > 1 && b == chain[top - 2])
+					break;
+				chain[top++] = b;
+			}
+			top -= 2;
+			
+			// the merged cluster is kept at the smaller slot, the other is retired
+			int keep = Math.min(a, b), drop = Math.max(a, b);
+			ma[m] = keep;
+			mb[m] = drop;
+			mh[m] = dab;
+			ClusteringKernels.lanceWilliams(linkage, d, size, keep, drop, dab);
+			size[keep] += size[drop];
+			size[drop] = 0;
+		}
+		label(n, ma, mb, mh);
+	}
+	
+	private static int index(int i, int j){
+		return i > j ? DistanceMatrix.index(i, j) : DistanceMatrix.index(j, i);
+	}
+	
+	private static int nextActive(int[] size, int a){
+		for(int j = 0; ; j++)
+			if(j != a && size[j] != 0)
+				return j;
+	}
+	
+	// sort the merges by height and give each cluster its dendrogram label, n + merge number
+	private void label(int n, int[] ma, int[] mb, double[] mh){
+		int len = ma.length;
+		int[] order = new int[len];
+		for(int i = 0; i < len; i++)
+			order[i] = i;
+		sortByHeight(order, mh);
 		
+		// union-find over the points; each slot is one of the points of its cluster
+		int[] parent = new int[n], label = new int[n];
+		for(int i = 0; i < n; i++){
+			parent[i] = i;
+			label[i] = i;
+		}
+		left = new int[len];
+		right = new int[len];
+		height = new double[len];
+		for(int k = 0; k < len; k++){
+			int m = order[k];
+			int ra = find(parent, ma[m]), rb = find(parent, mb[m]);
+			left[k] = Math.min(label[ra], label[rb]);
+			right[k] = Math.max(label[ra], label[rb]);
+			height[k] = mh[m];
+			parent[rb] = ra;
+			label[ra] = n + k;
+		}
+	}
+	
+	private static int find(int[] parent, int i){
+		while(parent[i] != i){
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	// stable merge sort of order by key, so that equal heights keep their merge order
+	private static void sortByHeight(int[] order, double[] key){
+		int len = order.length;
+		int[] src = order, dst = new int[len];
+		for(int w = 1; w < len; w *= 2){
+			for(int lo = 0; lo < len; lo += 2 * w){
+				int mid = Math.min(len, lo + w), hi = Math.min(len, lo + 2 * w);
+				int i = lo, j = mid, k = lo;
+				while(i < mid && j < hi)
+					dst[k++] = key[src[j]] < key[src[i]] ? src[j++] : src[i++];
+				while(i < mid) dst[k++] = src[i++];
+				while(j < hi) dst[k++] = src[j++];
+			}
+			int[] t = src; src = dst; dst = t;
+		}
+		if(src != order)
+			System.arraycopy(src, 0, order, 0, len);
+	}
+	
+	/**
+	 * @return first cluster of each merge, the smaller label
+	 */
+	public int[] getLeft(){
+		return left;
+	}
+	
+	/**
+	 * @return second cluster of each merge, the larger label
+	 */
+	public int[] getRight(){
+		return right;
+	}
+	
+	/**
+	 * @return distance between the two clusters of each merge
+	 */
+	public double[] getHeight(){
+		return height;
+	}
+	
+	// Euclidean distances between the rows of x
+	private static DistanceMatrix distances(double[][] x){
+		DistanceMatrix dm = new DistanceMatrix(x.length);
+		for(int i = 1; i < x.length; i++)
+			for(int j = 0; j < i; j++){
+				double s = 0.0;
+				for(int k = 0; k < x[i].length; k++)
+					s += (x[i][k] - x[j][k]) * (x[i][k] - x[j][k]);
+				dm.set(i, j, Math.sqrt(s));
+			}
+		return dm;
+	}
+	
+	// O(n^3) reference: merge the closest pair of clusters every time, with cluster distances taken from
+	// their points instead of updated. fills left and right and returns the heights
+	private static double[] naive(double[][] x, Linkage linkage, int[] left, int[] right){
+		int n = x.length, dim = n == 0 ? 0 : x[0].length;
+		DistanceMatrix dm = distances(x);
+		int[] of = new int[n];                 // label of the cluster of every point
+		for(int p = 0; p < n; p++)
+			of[p] = p;
+		double[] height = new double[Math.max(n - 1, 0)];
+		for(int m = 0; m < n - 1; m++){
+			int labels = n + m;
+			double[][] min = new double[labels][labels], max = new double[labels][labels], sum = new double[labels][labels];
+			double[][] centroid = new double[labels][dim];
+			int[] size = new int[labels];
+			for(double[] row : min)
+				Arrays.fill(row, Double.POSITIVE_INFINITY);
+			for(int p = 0; p < n; p++){
+				size[of[p]]++;
+				for(int k = 0; k < dim; k++)
+					centroid[of[p]][k] += x[p][k];
+				for(int q = 0; q < p; q++){
+					int a = of[p], b = of[q];
+					if(a == b) continue;
+					double d = dm.get(p, q);
+					min[a][b] = min[b][a] = Math.min(min[a][b], d);
+					max[a][b] = max[b][a] = Math.max(max[a][b], d);
+					sum[a][b] = sum[b][a] = sum[a][b] + d;
+				}
+			}
+			int ba = -1, bb = -1;
+			double best = Double.POSITIVE_INFINITY;
+			for(int a = 0; a < labels; a++)
+				for(int b = a + 1; b < labels; b++){
+					if(size[a] == 0 || size[b] == 0) continue;
+					double d;
+					switch(linkage){
+					case SINGLE:   d = min[a][b]; break;
+					case COMPLETE: d = max[a][b]; break;
+					case AVERAGE:  d = sum[a][b] / ((double)size[a] * size[b]); break;
+					default:
+						double s = 0.0;
+						for(int k = 0; k < dim; k++){
+							double t = centroid[a][k] / size[a] - centroid[b][k] / size[b];
+							s += t * t;
+						}
+						d = Math.sqrt(2.0 * size[a] * size[b] / (size[a] + size[b]) * s);
+					}
+					if(d < best){
+						best = d;
+						ba = a;
+						bb = b;
+					}
+				}
+			left[m] = ba;
+			right[m] = bb;
+			height[m] = best;
+			for(int p = 0; p < n; p++)
+				if(of[p] == ba || of[p] == bb)
+					of[p] = labels;
+		}
+		return height;
+	}
+	
+	// is it a binary tree over the n points, every label merged once and only after it was formed?
+	private static boolean isDendrogram(int n, int[] left, int[] right, double[] height){
+		if(left.length != Math.max(n - 1, 0) || right.length != left.length || height.length != left.length)
+			return false;
+		boolean[] merged = new boolean[2 * n];
+		for(int k = 0; k < left.length; k++){
+			if(left[k] < 0 || left[k] >= right[k] || right[k] >= n + k || merged[left[k]] || merged[right[k]])
+				return false;
+			merged[left[k]] = merged[right[k]] = true;
+		}
+		return true;
+	}
+	
+	// test function: the chain against the O(n^3) reference on random points, where distances do not tie
+	private static void testLinkage(Linkage linkage){
+		Random r = new Random();
+		int n = r.nextInt(40), dim = 1 + r.nextInt(4);
+		double[][] x = new double[n][dim];
+		for(double[] row : x)
+			for(int k = 0; k < dim; k++)
+				row[k] = r.nextDouble();
+		HierarchicalClustering hc = new HierarchicalClustering(distances(x), linkage);
+		hc.clustering();
+		int[] left = new int[Math.max(n - 1, 0)], right = new int[left.length];
+		double[] height = naive(x, linkage, left, right);
+		boolean ok = isDendrogram(n, hc.getLeft(), hc.getRight(), hc.getHeight());
+		try{
+			hc.clustering();
+			ok = false;
+		}catch(RuntimeException e){
+			// the matrix was consumed by the first run
+		}
+		ok &= Arrays.equals(hc.getLeft(), left) && Arrays.equals(hc.getRight(), right);
+		for(int k = 0; k < left.length; k++)
+			ok &= Math.abs(hc.getHeight()[k] - height[k]) <= 1e-9 * (1 + height[k]) && (k == 0 || height[k - 1] <= hc.getHeight()[k] + 1e-9);
+		System.out.println(ok);
+	}
+	
+	// test function: points on a small grid, with duplicates and many equal distances. the chain must
+	// not cycle, and single linkage heights, the edges of a minimum spanning tree, must match the reference
+	private static void testTies(){
+		Random r = new Random();
+		int n = 2 + r.nextInt(40);
+		double[][] x = new double[n][2];
+		for(double[] row : x){
+			row[0] = r.nextInt(3);
+			row[1] = r.nextInt(3);
+		}
+		boolean ok = true;
+		for(Linkage linkage : Linkage.values()){
+			HierarchicalClustering hc = new HierarchicalClustering(distances(x), linkage);
+			hc.clustering();
+			ok &= isDendrogram(n, hc.getLeft(), hc.getRight(), hc.getHeight());
+			for(int k = 1; k < n - 1; k++)
+				ok &= hc.getHeight()[k - 1] <= hc.getHeight()[k] + 1e-12;
+			if(linkage == Linkage.SINGLE)
+				ok &= Arrays.equals(hc.getHeight(), naive(x, linkage, new int[n - 1], new int[n - 1]));
+		}
+		System.out.println(ok);
+	}
+	
+	// test function: NaN distances never compare as nearest, yet every point still ends in one tree
+	private static void testNaN(){
+		Random r = new Random();
+		int n = 2 + r.nextInt(40);
+		boolean ok = true;
+		for(Linkage linkage : Linkage.values()){
+			DistanceMatrix dm = new DistanceMatrix(n);
+			for(int i = 1; i < n; i++)
+				for(int j = 0; j < i; j++)
+					dm.set(i, j, r.nextInt(3) == 0 ? Double.NaN : r.nextDouble());
+			HierarchicalClustering hc = new HierarchicalClustering(dm, linkage);
+			hc.clustering();
+			ok &= isDendrogram(n, hc.getLeft(), hc.getRight(), hc.getHeight());
+		}
+		System.out.println(ok);
+	}
+	
+	public static void main(String[] args){
+		for(int i = 0; i < 10; i++){
+			for(Linkage linkage : Linkage.values())
+				testLinkage(linkage);
+			testTies();
+			testNaN();
+		}
 	}
-}
\ No newline at end of file
+}
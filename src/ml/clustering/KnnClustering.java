@@ -1,5 +1,443 @@
 package ml.clustering;
 
-public class KnnClustering {
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
 
+import cas.Matrix;
+import cas.SampleSet;
+import cas.vector.DenseVector;
+import cas.vector.SparseVector;
+import cas.vector.Vector;
+import cas.vector.VectorCursor;
+
+/**
+ * k-nearest-neighbor search over a SampleSet under the Euclidean distance, backed by a spatial index
+ * built once in the constructor: a KD-tree up to KD_TREE_MAX_DIM dimensions, a ball tree up to
+ * BALL_TREE_MAX_DIM. Beyond that no tree prunes enough to pay for itself, and the samples are searched
+ * by exact blocked brute force instead, see ClusteringKernels.knn().
+ * 
+ * nearest() and withinRadius() answer single queries, nearest(SampleSet, ...) a batch of them by brute
+ * force; clustering() computes the k-nearest-neighbor graph of the samples themselves, in parallel,
+ * see getNeighbors() and getDistances().
+ * 
+ * The samples are stored centred on their mean, and every query is shifted by the same mean. Distances
+ * do not change, but the blocked brute force, which works from |q|^2 + |x|^2 - 2 q .* x, then cancels
+ * digits relative to the spread of the samples instead of their distance from the origin. Single queries
+ * and the trees use direct differences throughout.
+ * @author kex
+ *
+ */
+public class KnnClustering implements Clusterable{
+	static final int KD_TREE_MAX_DIM = 20;
+	static final int BALL_TREE_MAX_DIM = 64;
+	private static final int MIN_QUERIES_PER_TASK = 256;
+	
+	private final int n, dim, k;
+	private final double[] mean;          // subtracted from the samples and from every query
+	private final SpatialTree tree;       // null above BALL_TREE_MAX_DIM
+	private final double[] points;        // n-by-dim row-major samples and their square norms, for brute force
+	private final double[] norms;
+	private int[] neighbors;        // n * k, row i holds the neighbors of sample i, nearest first
+	private double[] distances;
+	
+	/**
+	 * @param samples all of the same size
+	 * @param k number of neighbors per sample in clustering(), less than the number of samples
+	 */
+	public <V extends Vector<?>> KnnClustering(SampleSet<V> samples, int k){
+		this.n = samples.size();
+		this.dim = n == 0 ? 0 : samples.get(0).size();
+		if(k < 1)
+			throw new RuntimeException("k must be positive.");
+		if((long)n * dim > Integer.MAX_VALUE)
+			throw new RuntimeException("Too many samples : " + n);
+		this.k = k;
+		
+		double[] points = new double[n * dim];
+		for(int i = 0; i < n; i++){
+			Vector<?> vec = samples.get(i);
+			if(vec == null || vec.size() != dim)
+				throw new RuntimeException("Samples must have the same size.");
+			load(vec, points, i * dim);
+		}
+		mean = ClusteringKernels.center(points, n, dim);
+		if(dim > BALL_TREE_MAX_DIM){
+			tree = null;
+			this.points = points;
+			norms = squareNorms(points, n, dim);
+		}
+		else{
+			tree = dim <= KD_TREE_MAX_DIM ? new SpatialTree.KdTree(points, n, dim) : new SpatialTree.BallTree(points, n, dim);
+			this.points = null;
+			norms = null;
+		}
+	}
+	
+	private static double[] squareNorms(double[] points, int n, int dim){
+		double[] out = new double[n];
+		for(int i = 0, a = 0; i < n; i++){
+			double s = 0.0;
+			for(int d = 0; d < dim; d++, a++)
+				s += points[a] * points[a];
+			out[i] = s;
+		}
+		return out;
+	}
+	
+	private static void load(Vector<?> vec, double[] out, int off){
+		VectorCursor cur = vec.cursor();
+		for(int i = cur.nextIndex(); i >= 0; i = cur.nextIndex())
+			out[off + i] = cur.value();
+	}
+	
+	// the query as a centred array
+	private double[] query(Vector<?> query){
+		if(query == null || query.size() != dim)
+			throw new RuntimeException("Length must match!");
+		double[] q = new double[dim];
+		load(query, q, 0);
+		for(int d = 0; d < dim; d++)
+			q[d] -= mean[d];
+		return q;
+	}
+	
+	/**
+	 * @param distances if not null, receives the distance to each neighbor
+	 * @return indices of the min(k, n) samples nearest to query, nearest first
+	 */
+	public int[] nearest(Vector<?> query, int k, double[] distances){
+		if(k < 1)
+			return new int[0];
+		NeighborHeap heap = new NeighborHeap(Math.min(k, n));
+		double[] q = query(query);
+		if(tree != null)
+			tree.nearest(q, 0, heap);
+		else{
+			double bound = heap.bound();
+			for(int i = 0; i < n; i++){
+				double s = squareDistance(q, i, bound);
+				if(s < bound){
+					heap.offer(i, s);
+					bound = heap.bound();
+				}
+			}
+		}
+		int[] out = new int[heap.size()];
+		heap.drain(out, distances, 0);
+		if(distances != null)
+			for(int i = 0; i < out.length; i++)
+				distances[i] = Math.sqrt(distances[i]);
+		return out;
+	}
+	
+	/**
+	 * square distance from q to sample i by direct differences, brute force only. a single query reads
+	 * every sample once whichever way it is computed, so this costs the same as a Matrix-vector product
+	 * without its cancellation or its n-length output.
+	 * @return the distance, or any value not below bound once the partial sum reaches bound
+	 */
+	private double squareDistance(double[] q, int i, double bound){
+		double s = 0.0;
+		for(int d = 0, a = i * dim; d < dim; d++, a++){
+			double diff = q[d] - points[a];
+			s += diff * diff;
+			if((d & 15) == 15 && s >= bound)
+				return s;
+		}
+		return s;
+	}
+	
+	public int[] nearest(Vector<?> query, int k){
+		return nearest(query, k, null);
+	}
+	
+	/**
+	 * @return indices of the samples within radius of query, in no particular order
+	 */
+	public int[] withinRadius(Vector<?> query, double radius){
+		if(radius < 0)
+			throw new RuntimeException("Radius must not be negative.");
+		double[] q = query(query);
+		if(tree != null)
+			return tree.radius(q, 0, radius * radius);
+		int[] out = new int[16];
+		int count = 0;
+		for(int i = 0; i < n; i++){
+			if(squareDistance(q, i, Double.POSITIVE_INFINITY) <= radius * radius){
+				if(count == out.length)
+					out = Arrays.copyOf(out, count + (count >> 1));
+				out[count++] = i;
+			}
+		}
+		return Arrays.copyOf(out, count);
+	}
+	
+	/**
+	 * exact k nearest samples of every query by blocked brute force, whatever the index: the choice for
+	 * large batches of high-dimensional queries.
+	 * @param distances if not null, receives the distances, parallel to the result
+	 * @return queries.size() * min(k, n) sample indices, the neighbors of query i at i * min(k, n), nearest first
+	 */
+	public <V extends Vector<?>> int[] nearest(SampleSet<V> queries, int k, double[] distances){
+		int m = queries.size(), kk = Math.min(Math.max(k, 0), n);
+		if((long)m * dim > Integer.MAX_VALUE)
+			throw new RuntimeException("Too many queries : " + m);
+		double[] q = new double[m * dim];
+		for(int i = 0; i < m; i++){
+			Vector<?> vec = queries.get(i);
+			if(vec == null || vec.size() != dim)
+				throw new RuntimeException("Length must match!");
+			load(vec, q, i * dim);
+			for(int d = 0; d < dim; d++)
+				q[i * dim + d] -= mean[d];
+		}
+		int[] out = new int[m * kk];
+		double[] dist = distances != null ? distances : new double[m * kk];
+		if(kk > 0)
+			ClusteringKernels.knn(Matrix.wrap(m, dim, q), squareNorms(q, m, dim), samples(), sampleNorms(), false, kk, out, dist);
+		return out;
+	}
+	
+	// the (centred) samples as a Matrix, shared with points or rebuilt from the tree when there is one
+	private Matrix samples(){
+		if(points != null)
+			return Matrix.wrap(n, dim, points);
+		double[] x = new double[n * dim];
+		for(int p = 0; p < n; p++)
+			System.arraycopy(tree.points, p * dim, x, tree.idx[p] * dim, dim);
+		return Matrix.wrap(n, dim, x);
+	}
+	
+	private double[] sampleNorms(){
+		if(norms != null)
+			return norms;
+		double[] out = new double[n];
+		double[] s = squareNorms(tree.points, n, dim);
+		for(int p = 0; p < n; p++)
+			out[tree.idx[p]] = s[p];
+		return out;
+	}
+	
+	/**
+	 * k-nearest-neighbor graph of the samples: each sample's k nearest other samples
+	 */
+	public void clustering(){
+		if(k >= n)
+			throw new RuntimeException("k must be less than the number of samples.");
+		neighbors = new int[n * k];
+		distances = new double[n * k];
+		if(tree == null){
+			Matrix data = samples();
+			ClusteringKernels.knn(data, norms, data, norms, true, k, neighbors, distances);
+		}
+		else if(n < 2 * MIN_QUERIES_PER_TASK || Runtime.getRuntime().availableProcessors() < 2)
+			graph(0, n);
+		else
+			ClusteringKernels.pool().invoke(new GraphTask(0, n));
+	}
+	
+	// neighbors of the samples at tree positions [from, to); neighboring positions share most of their search
+	private void graph(int from, int to){
+		NeighborHeap heap = new NeighborHeap(k + 1);
+		int[] found = new int[k + 1];
+		double[] dist = new double[k + 1];
+		for(int p = from; p < to; p++){
+			heap.clear();
+			tree.nearest(tree.points, p * dim, heap);
+			int count = heap.drain(found, dist, 0);
+			
+			// drop the sample itself, or the furthest if duplicates of it pushed it out
+			int self = tree.idx[p], row = self * k;
+			for(int i = 0, j = 0; i < count && j < k; i++){
+				if(found[i] == self)
+					continue;
+				neighbors[row + j] = found[i];
+				distances[row + j] = Math.sqrt(dist[i]);
+				j++;
+			}
+		}
+	}
+	
+	/**
+	 * @return n * k neighbor indices, the neighbors of sample i at i * k, nearest first
+	 */
+	public int[] getNeighbors(){
+		return neighbors;
+	}
+	
+	/**
+	 * @return n * k distances, parallel to getNeighbors()
+	 */
+	public double[] getDistances(){
+		return distances;
+	}
+	
+	private class GraphTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		
+		private final int from, to;
+		
+		GraphTask(int from, int to){
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute(){
+			if(to - from <= MIN_QUERIES_PER_TASK){
+				graph(from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new GraphTask(from, mid), new GraphTask(mid, to));
+		}
+	}
+	
+	// n random samples around offset, about a quarter of them duplicates of earlier ones and some sparse,
+	// with their values in x
+	private static SampleSet<Vector<?>> randomSamples(Random r, int n, int dim, double offset, double[][] x){
+		ArrayList<Vector<?>> vecs = new ArrayList<Vector<?>>();
+		for(int i = 0; i < n; i++){
+			if(i > 0 && r.nextInt(4) == 0)
+				x[i] = x[r.nextInt(i)].clone();
+			else
+				for(int d = 0; d < dim; d++)
+					x[i][d] = offset + r.nextDouble();
+			if(r.nextBoolean()){
+				vecs.add(new DenseVector(x[i]));
+				continue;
+			}
+			SparseVector vec = new SparseVector(dim);
+			for(int d = 0; d < dim; d++)
+				vec.set(d, x[i][d]);
+			vecs.add(vec);
+		}
+		return new SampleSet<Vector<?>>(vecs);
+	}
+	
+	private static double distance(double[] a, double[] b){
+		double s = 0.0;
+		for(int d = 0; d < a.length; d++)
+			s += (a[d] - b[d]) * (a[d] - b[d]);
+		return Math.sqrt(s);
+	}
+	
+	// are idx[from..from+count-1] and dist[..] the count nearest samples to q other than self, nearest first?
+	// ties may come in any order, so the distances are compared with the sorted distances of every sample
+	private static boolean isNearest(double[][] x, double[] q, int self, int[] idx, double[] dist, int from, int count){
+		double[] all = new double[x.length];
+		for(int i = 0; i < x.length; i++)
+			all[i] = i == self ? Double.POSITIVE_INFINITY : distance(x[i], q);
+		double[] sorted = all.clone();
+		Arrays.sort(sorted);
+		double tolerance = 1e-8 * (1 + q.length);
+		boolean ok = true;
+		boolean[] seen = new boolean[x.length];
+		for(int t = 0; t < count; t++){
+			int i = idx[from + t];
+			ok &= i >= 0 && i < x.length && i != self && !seen[i];
+			if(!ok) return false;
+			seen[i] = true;
+			ok &= Math.abs(dist[from + t] - all[i]) <= tolerance && Math.abs(dist[from + t] - sorted[t]) <= tolerance;
+		}
+		return ok;
+	}
+	
+	// test function for nearest(), withinRadius() and clustering() on n samples around offset, queries being
+	// random points and samples themselves, against distances computed directly
+	private static void testSearch(int n, int dim, double offset){
+		Random r = new Random();
+		double[][] x = new double[n][dim];
+		KnnClustering knn = new KnnClustering(randomSamples(r, n, dim, offset, x), 1 + r.nextInt(Math.max(n - 1, 1)));
+		double tolerance = 1e-8 * (1 + dim);
+		boolean ok = true;
+		for(int t = 0; t < 10; t++){
+			double[] q = new double[dim];
+			if(r.nextBoolean())
+				q = x[r.nextInt(n)].clone();
+			else
+				for(int d = 0; d < dim; d++)
+					q[d] = offset + r.nextDouble();
+			int k = 1 + r.nextInt(n + 2);
+			double[] dist = new double[Math.min(k, n)];
+			int[] idx = knn.nearest(new DenseVector(q), k, dist);
+			ok &= idx.length == Math.min(k, n) && isNearest(x, q, -1, idx, dist, 0, idx.length);
+			
+			// a radius just past one of the distances; samples within rounding of it could go either way
+			double radius = dist[r.nextInt(dist.length)] + tolerance * r.nextDouble() * 100;
+			boolean[] within = new boolean[n];
+			for(int i : knn.withinRadius(new DenseVector(q), radius)){
+				ok &= !within[i];
+				within[i] = true;
+			}
+			for(int i = 0; i < n; i++){
+				double d = distance(x[i], q);
+				ok &= Math.abs(d - radius) <= tolerance || within[i] == d < radius;
+			}
+		}
+		try{
+			knn.withinRadius(new DenseVector(new double[dim]), -r.nextDouble() - Double.MIN_VALUE);
+			ok = false;
+		}catch(RuntimeException e){
+		}
+		
+		if(knn.k < n){
+			knn.clustering();
+			for(int i = 0; i < n; i++)
+				ok &= isNearest(x, x[i], i, knn.getNeighbors(), knn.getDistances(), i * knn.k, knn.k);
+		}
+		System.out.println(ok);
+	}
+	
+	// test function for the blocked brute force of nearest(SampleSet, ...): m queries, half of them samples,
+	// against distances computed directly, whichever index the samples have
+	private static void testBatch(int n, int m, int dim, double offset){
+		Random r = new Random();
+		double[][] x = new double[n][dim], q = new double[m][];
+		KnnClustering knn = new KnnClustering(randomSamples(r, n, dim, offset, x), 1);
+		ArrayList<Vector<?>> queries = new ArrayList<Vector<?>>();
+		for(int i = 0; i < m; i++){
+			if(r.nextBoolean())
+				q[i] = x[r.nextInt(n)].clone();
+			else{
+				q[i] = new double[dim];
+				for(int d = 0; d < dim; d++)
+					q[i][d] = offset + r.nextDouble();
+			}
+			queries.add(new DenseVector(q[i]));
+		}
+		int k = r.nextInt(n + 2), kk = Math.min(k, n);
+		double[] dist = new double[m * kk];
+		int[] idx = knn.nearest(new SampleSet<Vector<?>>(queries), k, dist);
+		boolean ok = idx.length == m * kk;
+		for(int i = 0; i < m; i++)
+			ok &= isNearest(x, q[i], -1, idx, dist, i * kk, kk);
+		System.out.println(ok);
+	}
+	
+	public static void main(String[] args){
+		Random r = new Random();
+		for(int i = 0; i < 10; i++){
+			testSearch(1 + r.nextInt(300), 1 + r.nextInt(KD_TREE_MAX_DIM), 0.0);
+			testSearch(1 + r.nextInt(300), KD_TREE_MAX_DIM + 1 + r.nextInt(BALL_TREE_MAX_DIM - KD_TREE_MAX_DIM), 0.0);
+			testSearch(1 + r.nextInt(300), BALL_TREE_MAX_DIM + 1 + r.nextInt(100), 0.0);
+			testSearch(1 + r.nextInt(300), 1 + r.nextInt(2 * BALL_TREE_MAX_DIM), 1e6);
+			testBatch(1 + r.nextInt(300), 1 + r.nextInt(100), 1 + r.nextInt(2 * BALL_TREE_MAX_DIM), r.nextBoolean() ? 0.0 : 1e6);
+		}
+		
+		// enough samples to split clustering() and the brute force over the pool on a machine with several
+		// cores, and more than one tile of samples per query
+		testSearch(4 * MIN_QUERIES_PER_TASK, 3, 0.0);
+		testSearch(4 * MIN_QUERIES_PER_TASK, KD_TREE_MAX_DIM + 10, 0.0);
+		testSearch(4 * MIN_QUERIES_PER_TASK, BALL_TREE_MAX_DIM + 10, 1e6);
+		testBatch(2500, 600, BALL_TREE_MAX_DIM + 10, 1e6);
+		
+		// trees past twice the grain are built by the pool, when there are cores for it
+		SpatialTree.setParallelBuild(SpatialTree.LEAF_SIZE);
+		testSearch(1000 + r.nextInt(1000), 3, 0.0);
+		testSearch(1000 + r.nextInt(1000), KD_TREE_MAX_DIM + 10, 1e6);
+		SpatialTree.setParallelBuild(1 << 14);
+	}
 }
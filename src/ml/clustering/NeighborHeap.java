@@ -0,0 +1,95 @@
+package ml.clustering;
+
+/**
+ * Bounded max-heap of (point, distance) pairs that keeps the k smallest distances offered to it.
+ * Primitive arrays only, so one heap can be reused for every query of a thread.
+ * @author kex
+ *
+ */
+final class NeighborHeap{
+	private final int k;
+	private final int[] idx;
+	private final double[] dist;
+	private int size;
+	
+	NeighborHeap(int k){
+		this.k = k;
+		this.idx = new int[k];
+		this.dist = new double[k];
+	}
+	
+	void clear(){
+		size = 0;
+	}
+	
+	int size(){
+		return size;
+	}
+	
+	int capacity(){
+		return k;
+	}
+	
+	/**
+	 * @return the k-th smallest distance so far, or +infinity while fewer than k were offered.
+	 * a point at this distance or further cannot enter the heap
+	 */
+	double bound(){
+		return size < k ? Double.POSITIVE_INFINITY : dist[0];
+	}
+	
+	void offer(int i, double d){
+		if(size < k){
+			// sift up
+			int c = size++;
+			while(c > 0){
+				int p = (c - 1) >>> 1;
+				if(dist[p] >= d)
+					break;
+				idx[c] = idx[p];
+				dist[c] = dist[p];
+				c = p;
+			}
+			idx[c] = i;
+			dist[c] = d;
+		}
+		else if(d < dist[0])
+			replaceTop(i, d);
+	}
+	
+	// sift down from the root
+	private void replaceTop(int i, double d){
+		int p = 0;
+		while(true){
+			int c = 2 * p + 1;
+			if(c >= size)
+				break;
+			if(c + 1 < size && dist[c + 1] > dist[c])
+				c++;
+			if(dist[c] <= d)
+				break;
+			idx[p] = idx[c];
+			dist[p] = dist[c];
+			p = c;
+		}
+		idx[p] = i;
+		dist[p] = d;
+	}
+	
+	/**
+	 * empty the heap into outIdx / outDist from position off, nearest first. outDist may be null
+	 * @return the number of neighbors written
+	 */
+	int drain(int[] outIdx, double[] outDist, int off){
+		int count = size;
+		while(size > 0){
+			int last = --size;
+			outIdx[off + last] = idx[0];
+			if(outDist != null)
+				outDist[off + last] = dist[0];
+			if(last > 0)
+				replaceTop(idx[last], dist[last]);
+		}
+		return count;
+	}
+}
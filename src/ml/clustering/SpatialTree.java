@@ -0,0 +1,323 @@
+package ml.clustering;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Binary space-partitioning tree over n points of dimension dim, for Euclidean nearest-neighbor
+ * and radius queries.
+ * 
+ * The points live in one row-major double[] that the build reorders in place, so that the points
+ * of every node are contiguous; idx maps a position back to the original point. Each node splits
+ * its range at the median of its widest dimension, so the tree is balanced and implicit: node i
+ * has children 2i + 1 and 2i + 2, and its range follows from the root's by halving. Subclasses
+ * only say how a node is bounded, which decides how far a query can prune.
+ * 
+ * Distances inside the tree are squared.
+ * @author kex
+ *
+ */
+abstract class SpatialTree{
+	static final int LEAF_SIZE = 32;
+	private static volatile int parallelBuild = 1 << 14;   // points below which a subtree is built sequentially
+	
+	final int n, dim;
+	final double[] points;    // tree order, row-major
+	final int[] idx;          // idx[p] is the original index of the point at position p
+	
+	SpatialTree(double[] points, int n, int dim){
+		this.points = points;
+		this.n = n;
+		this.dim = dim;
+		this.idx = new int[n];
+		for(int i = 0; i < n; i++)
+			idx[i] = i;
+		
+		int depth = 0;
+		while((n + (1L << depth) - 1) >> depth > LEAF_SIZE)
+			depth++;
+		allocate((1 << (depth + 1)) - 1);
+		
+		if(n == 0)
+			return;
+		int grain = parallelBuild;
+		if(n < 2 * grain || Runtime.getRuntime().availableProcessors() < 2)
+			build(0, 0, n);
+		else
+			ClusteringKernels.pool().invoke(new BuildTask(0, 0, n, grain));
+	}
+	
+	// lowered by the tests so that small trees take the parallel build; LEAF_SIZE at least
+	static void setParallelBuild(int points){
+		if(points < LEAF_SIZE)
+			throw new RuntimeException("Illegal parallel threshold.");
+		parallelBuild = points;
+	}
+	
+	// allocate the bounds of the given number of nodes
+	abstract void allocate(int nodes);
+	
+	// bound the points at positions [lo, hi) as node
+	abstract void bound(int node, int lo, int hi);
+	
+	// lower bound of the square distance from q to any point of node
+	abstract double lowerBound(int node, double[] q, int qoff);
+	
+	private void build(int node, int lo, int hi){
+		if(split(node, lo, hi)){
+			int mid = (lo + hi) >>> 1;
+			build(2 * node + 1, lo, mid);
+			build(2 * node + 2, mid, hi);
+		}
+	}
+	
+	// bound node and partition its points around the median; false for a leaf
+	private boolean split(int node, int lo, int hi){
+		bound(node, lo, hi);
+		if(hi - lo <= LEAF_SIZE)
+			return false;
+		
+		int widest = 0;
+		double spread = -1.0;
+		for(int d = 0; d < dim; d++){
+			double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+			for(int p = lo; p < hi; p++){
+				double v = points[p * dim + d];
+				if(v < min) min = v;
+				if(v > max) max = v;
+			}
+			if(max - min > spread){
+				spread = max - min;
+				widest = d;
+			}
+		}
+		select(lo, hi, (lo + hi) >>> 1, widest);
+		return true;
+	}
+	
+	// quickselect on dimension d: afterwards no point before position k is greater, and none after it smaller
+	private void select(int lo, int hi, int k, int d){
+		hi--;
+		while(lo < hi){
+			double a = points[lo * dim + d], b = points[((lo + hi) >>> 1) * dim + d], c = points[hi * dim + d];
+			double pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+			int i = lo, j = hi;
+			while(i <= j){
+				while(points[i * dim + d] < pivot) i++;
+				while(points[j * dim + d] > pivot) j--;
+				if(i <= j)
+					swap(i++, j--);
+			}
+			if(k <= j)
+				hi = j;
+			else if(k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+	
+	private void swap(int p, int q){
+		int t = idx[p];
+		idx[p] = idx[q];
+		idx[q] = t;
+		for(int d = 0, a = p * dim, b = q * dim; d < dim; d++, a++, b++){
+			double v = points[a];
+			points[a] = points[b];
+			points[b] = v;
+		}
+	}
+	
+	/**
+	 * square distance from q to the point at position p
+	 */
+	final double distance(double[] q, int qoff, int p){
+		double s = 0.0;
+		for(int d = 0, a = p * dim; d < dim; d++, a++){
+			double t = q[qoff + d] - points[a];
+			s += t * t;
+		}
+		return s;
+	}
+	
+	/**
+	 * offer every point within sqrt(heap.bound()) of q to heap, so that it ends up with the nearest ones
+	 */
+	final void nearest(double[] q, int qoff, NeighborHeap heap){
+		if(n > 0)
+			nearest(0, 0, n, q, qoff, heap);
+	}
+	
+	private void nearest(int node, int lo, int hi, double[] q, int qoff, NeighborHeap heap){
+		if(hi - lo <= LEAF_SIZE){
+			for(int p = lo; p < hi; p++){
+				double s = distance(q, qoff, p);
+				if(s < heap.bound())
+					heap.offer(idx[p], s);
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		int left = 2 * node + 1, right = left + 1;
+		double bl = lowerBound(left, q, qoff), br = lowerBound(right, q, qoff);
+		// closer child first, so that the heap tightens before the other is considered
+		if(bl <= br){
+			if(bl < heap.bound()) nearest(left, lo, mid, q, qoff, heap);
+			if(br < heap.bound()) nearest(right, mid, hi, q, qoff, heap);
+		}
+		else{
+			if(br < heap.bound()) nearest(right, mid, hi, q, qoff, heap);
+			if(bl < heap.bound()) nearest(left, lo, mid, q, qoff, heap);
+		}
+	}
+	
+	/**
+	 * @return original indices of the points with square distance to q at most r2, in no particular order
+	 */
+	final int[] radius(double[] q, int qoff, double r2){
+		int[] out = new int[16];
+		int count = 0;
+		if(n == 0)
+			return new int[0];
+		
+		// depth-first, one stack entry per pending node: it never holds more than the depth plus one
+		int[] stack = new int[3 * 64];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = 0;
+		stack[top++] = n;
+		while(top > 0){
+			int hi = stack[--top], lo = stack[--top], node = stack[--top];
+			if(lowerBound(node, q, qoff) > r2)
+				continue;
+			if(hi - lo <= LEAF_SIZE){
+				for(int p = lo; p < hi; p++)
+					if(distance(q, qoff, p) <= r2){
+						if(count == out.length)
+							out = Arrays.copyOf(out, 2 * count);
+						out[count++] = idx[p];
+					}
+				continue;
+			}
+			int mid = (lo + hi) >>> 1;
+			stack[top++] = 2 * node + 2;
+			stack[top++] = mid;
+			stack[top++] = hi;
+			stack[top++] = 2 * node + 1;
+			stack[top++] = lo;
+			stack[top++] = mid;
+		}
+		return Arrays.copyOf(out, count);
+	}
+	
+	private class BuildTask extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		
+		private final int node, lo, hi, grain;
+		
+		BuildTask(int node, int lo, int hi, int grain){
+			this.node = node;
+			this.lo = lo;
+			this.hi = hi;
+			this.grain = grain;
+		}
+		
+		@Override
+		protected void compute(){
+			if(hi - lo < grain){
+				build(node, lo, hi);
+				return;
+			}
+			if(split(node, lo, hi)){
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new BuildTask(2 * node + 1, lo, mid, grain), new BuildTask(2 * node + 2, mid, hi, grain));
+			}
+		}
+	}
+
+	/**
+	 * KD-tree: each node is bounded by the axis-aligned box of its points. Tight in low dimensions, where
+	 * a query only reaches the few boxes next to it.
+	 */
+	static final class KdTree extends SpatialTree{
+		private double[] lower, upper;    // box of node i is [lower, upper] at i * dim
+		
+		KdTree(double[] points, int n, int dim){
+			super(points, n, dim);
+		}
+		
+		@Override
+		void allocate(int nodes){
+			lower = new double[nodes * dim];
+			upper = new double[nodes * dim];
+		}
+		
+		@Override
+		void bound(int node, int lo, int hi){
+			int b = node * dim;
+			Arrays.fill(lower, b, b + dim, Double.POSITIVE_INFINITY);
+			Arrays.fill(upper, b, b + dim, Double.NEGATIVE_INFINITY);
+			for(int p = lo; p < hi; p++)
+				for(int d = 0, a = p * dim; d < dim; d++, a++){
+					double v = points[a];
+					if(v < lower[b + d]) lower[b + d] = v;
+					if(v > upper[b + d]) upper[b + d] = v;
+				}
+		}
+		
+		@Override
+		double lowerBound(int node, double[] q, int qoff){
+			double s = 0.0;
+			for(int d = 0, b = node * dim; d < dim; d++, b++){
+				double v = q[qoff + d];
+				double t = v < lower[b] ? lower[b] - v : v > upper[b] ? v - upper[b] : 0.0;
+				s += t * t;
+			}
+			return s;
+		}
+	}
+
+	/**
+	 * Ball tree: each node is bounded by a sphere around the mean of its points. Boxes lose their grip
+	 * as the dimension grows, a sphere costs one distance whatever the dimension.
+	 */
+	static final class BallTree extends SpatialTree{
+		private double[] centers;    // center of node i at i * dim
+		private double[] radii;
+		
+		BallTree(double[] points, int n, int dim){
+			super(points, n, dim);
+		}
+		
+		@Override
+		void allocate(int nodes){
+			centers = new double[nodes * dim];
+			radii = new double[nodes];
+		}
+		
+		@Override
+		void bound(int node, int lo, int hi){
+			int b = node * dim;
+			for(int p = lo; p < hi; p++)
+				for(int d = 0, a = p * dim; d < dim; d++, a++)
+					centers[b + d] += points[a];
+			for(int d = 0; d < dim; d++)
+				centers[b + d] /= hi - lo;
+			double r2 = 0.0;
+			for(int p = lo; p < hi; p++)
+				r2 = Math.max(r2, distance(centers, b, p));
+			radii[node] = Math.sqrt(r2);
+		}
+		
+		@Override
+		double lowerBound(int node, double[] q, int qoff){
+			double s = 0.0;
+			for(int d = 0, b = node * dim; d < dim; d++, b++){
+				double t = q[qoff + d] - centers[b];
+				s += t * t;
+			}
+			double t = Math.sqrt(s) - radii[node];
+			return t > 0.0 ? t * t : 0.0;
+		}
+	}
+}